@@ -0,0 +1,94 @@
+package filesystem;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark comparing a large tree of objects with a columnar snapshot of it on
+ * and off the heap: the time a full garbage collection takes while only one of
+ * them is live, and the time to look up a file by its path. The tree has the
+ * given number of files, in directories of 100 files, 10 subdirectories each.
+ */
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+@State(Scope.Benchmark)
+public class ColumnarBenchmark {
+
+	private static final int FILES_PER_DIRECTORY = 100;
+	private static final int DIRECTORIES_PER_DIRECTORY = 10;
+
+	@Param({"1000000"})
+	public int nbFiles;
+
+	@Param({"objects", "columns", "offHeap"})
+	public String representation;
+
+	private Directory root;
+
+	private ColumnarSnapshot snapshot;
+
+	/**
+	 * The path of a file at the bottom of the tree.
+	 */
+	private String path;
+
+	@Setup
+	public void setUp() {
+		Directory objects = new Directory("root");
+		path = fill(objects, nbFiles);
+		if (representation.equals("objects")) root = objects;
+		else snapshot = representation.equals("offHeap") ? ColumnarSnapshot.offHeap(objects) : ColumnarSnapshot.of(objects);
+	}
+
+	@TearDown
+	public void tearDown() {
+		if (snapshot != null) snapshot.close();
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	public void fullGc() {
+		System.gc();
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.AverageTime)
+	@OutputTimeUnit(TimeUnit.NANOSECONDS)
+	public Object resolve() {
+		return (root != null) ? root.resolve(path) : (Object) snapshot.resolve(path);
+	}
+
+	/**
+	 * Adds the given number of files to the given directory, spread over nested
+	 * directories, and returns the path of the last file.
+	 */
+	private static String fill(Directory root, int nbFiles) {
+		ArrayDeque<Directory> pending = new ArrayDeque<>();
+		pending.add(root);
+		File last = null;
+		int created = 0;
+		while (created < nbFiles) {
+			Directory dir = pending.poll();
+			for (int i = 0; i < FILES_PER_DIRECTORY && created < nbFiles; i++, created++) {
+				last = new File(dir, "file" + created, created % 1000, true, (created % 4 == 0) ? "java" : "txt");
+			}
+			for (int i = 0; i < DIRECTORIES_PER_DIRECTORY; i++) pending.add(new Directory(dir, "dir" + i, true));
+		}
+		return last.getPath();
+	}
+}
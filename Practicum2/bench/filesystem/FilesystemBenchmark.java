@@ -0,0 +1,172 @@
+package filesystem;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark suite for the filesystem package. Measures the construction of
+ * files and directories, the content operations of Directory for directories
+ * of 10 up to 1M items, and getRoot and isDirectOrIndirectSubDirectoryOf for
+ * trees of depth 1 up to 10k.
+ *
+ * Built by the jmh profile of the Maven build, and run with JSON output as
+ *
+ *     java -jar target/benchmarks.jar FilesystemBenchmark -rf json
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class FilesystemBenchmark {
+
+	/**
+	 * Distinct valid names for new root items.
+	 */
+	@State(Scope.Thread)
+	public static class Names {
+
+		String[] names = createNames(1 << 16);
+		int next = 0;
+
+		String next() {
+			next = (next + 1) & (names.length - 1);
+			return names[next];
+		}
+	}
+
+	/**
+	 * A directory holding a given number of files.
+	 */
+	@State(Scope.Thread)
+	public static class Contents {
+
+		@Param({"10", "100", "1000", "10000", "100000", "1000000"})
+		public int size;
+
+		String[] names;
+		ArrayList<FilesystemItem> items;
+		Directory dir;
+		File probe;
+		int next = 0;
+
+		@Setup
+		public void setUp() {
+			names = createNames(size);
+			items = new ArrayList<>(size);
+			for (String name: names) items.add(new File(name, "txt"));
+			dir = new Directory("dir");
+			dir.addItems(items);
+			probe = new File("probe", "txt");
+		}
+
+		int next() {
+			next = (next + 1 == size) ? 0 : next + 1;
+			return next;
+		}
+	}
+
+	/**
+	 * A chain of directories with the bottom one at the given depth below the top,
+	 * and a directory outside of it.
+	 */
+	@State(Scope.Thread)
+	public static class Hierarchy {
+
+		@Param({"1", "10", "100", "1000", "10000"})
+		public int depth;
+
+		Directory top;
+		Directory bottom;
+		Directory unrelated;
+
+		@Setup
+		public void setUp() {
+			top = new Directory("top");
+			bottom = top;
+			for (int i = 1; i <= depth; i++) bottom = new Directory(bottom, "level" + i, true);
+			unrelated = new Directory("unrelated");
+		}
+	}
+
+	@Benchmark
+	public File newFile(Names names) {
+		return new File(names.next(), "txt");
+	}
+
+	@Benchmark
+	public Directory newDirectory(Names names) {
+		return new Directory(names.next());
+	}
+
+	@Benchmark
+	public FilesystemItem getItem(Contents contents) {
+		return contents.dir.getItem(contents.names[contents.next()]);
+	}
+
+	@Benchmark
+	public boolean exists(Contents contents) {
+		return contents.dir.exists(contents.names[contents.next()]);
+	}
+
+	@Benchmark
+	public FilesystemItem getItemAt(Contents contents) {
+		return contents.dir.getItemAt(contents.next() + 1);
+	}
+
+	@Benchmark
+	public boolean hasAsItem(Contents contents) {
+		return contents.dir.hasAsItem(contents.items.get(contents.next()));
+	}
+
+	@Benchmark
+	public Object listByPrefix(Contents contents) {
+		return contents.dir.listByPrefix(contents.names[contents.next()]);
+	}
+
+	/**
+	 * Adds a file to the directory and removes it again, so the directory keeps its size.
+	 */
+	@Benchmark
+	public Directory addAndRemoveItem(Contents contents) {
+		contents.dir.addItem(contents.probe);
+		contents.dir.removeItem(contents.probe);
+		return contents.dir;
+	}
+
+	@Benchmark
+	public Directory getRoot(Hierarchy hierarchy) {
+		return hierarchy.bottom.getRoot();
+	}
+
+	@Benchmark
+	public boolean isDirectOrIndirectSubDirectoryOf(Hierarchy hierarchy) {
+		return hierarchy.bottom.isDirectOrIndirectSubDirectoryOf(hierarchy.top);
+	}
+
+	@Benchmark
+	public boolean isNotSubDirectoryOf(Hierarchy hierarchy) {
+		return hierarchy.bottom.isDirectOrIndirectSubDirectoryOf(hierarchy.unrelated);
+	}
+
+	/**
+	 * Returns the given number of distinct valid names.
+	 */
+	static String[] createNames(int number) {
+		String[] names = new String[number];
+		for (int i = 0; i < number; i++) names[i] = "item_" + i;
+		return names;
+	}
+}
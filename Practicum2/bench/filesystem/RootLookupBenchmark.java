@@ -0,0 +1,57 @@
+package filesystem;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the kept root lookup of FilesystemItem.getRoot() with walking
+ * up all parents, for the file at the bottom of chains of directories of
+ * different depths.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RootLookupBenchmark {
+
+	@Param({"10", "1000", "100000"})
+	public int depth;
+
+	private FilesystemItem leaf;
+
+	@Setup
+	public void setUp() {
+		Directory dir = new Directory("root");
+		for (int i = 1; i < depth; i++) {
+			dir = new Directory(dir, "level" + i, true);
+		}
+		leaf = new File(dir, "leaf", "txt");
+	}
+
+	@Benchmark
+	public Directory getRoot() {
+		return leaf.getRoot();
+	}
+
+	@Benchmark
+	public Directory walkUp() {
+		Directory parent = leaf.getDirectory();
+		while (parent.getDirectory() != null) {
+			parent = parent.getDirectory();
+		}
+		return parent;
+	}
+}
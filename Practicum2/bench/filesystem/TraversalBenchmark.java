@@ -0,0 +1,107 @@
+package filesystem;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark for searching a large tree with Directory.find, sequentially and
+ * in fork-join pools of 1 up to 32 threads. The tree has the given number of
+ * files, spread over directories of 100 files that are nested up to 4 levels
+ * deep. The search looks for large java files.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class TraversalBenchmark {
+
+	private static final int FILES_PER_DIRECTORY = 100;
+	private static final int DIRECTORIES_PER_DIRECTORY = 10;
+	private static final int LEVELS = 4;
+
+	private static final Predicate<FilesystemItem> CONDITION = item -> item instanceof File
+			&& ((File) item).getType() == FileType.JAVA && ((File) item).getSize() > 500;
+
+	/**
+	 * The tree that is searched.
+	 */
+	@State(Scope.Benchmark)
+	public static class Tree {
+
+		@Param({"1000000"})
+		public int nbFiles;
+
+		Directory root;
+
+		@Setup
+		public void setUp() {
+			root = new Directory("root");
+			fill(root, 0, nbFiles);
+		}
+	}
+
+	/**
+	 * The pool the parallel search runs in.
+	 */
+	@State(Scope.Benchmark)
+	public static class Pool {
+
+		@Param({"1", "2", "4", "8", "16", "32"})
+		public int threads;
+
+		ForkJoinPool pool;
+
+		@Setup
+		public void setUp() {
+			pool = new ForkJoinPool(threads);
+		}
+
+		@TearDown
+		public void tearDown() {
+			pool.shutdown();
+		}
+	}
+
+	@Benchmark
+	public List<FilesystemItem> findSequential(Tree tree) {
+		return tree.root.find(CONDITION);
+	}
+
+	@Benchmark
+	public List<FilesystemItem> findParallel(Tree tree, Pool pool) {
+		return tree.root.find(CONDITION, pool.pool);
+	}
+
+	/**
+	 * Adds files and subdirectories to the given directory until the given number
+	 * of files is reached, and returns the number of files that were added.
+	 */
+	private static int fill(Directory dir, int level, int nbFiles) {
+		int created = 0;
+		for (; created < Math.min(nbFiles, FILES_PER_DIRECTORY); created++) {
+			new File(dir, "file" + created, created * 7 % 1000, true, (created % 4 == 0) ? "java" : "txt");
+		}
+		if (level == LEVELS) return created;
+		for (int i = 0; i < DIRECTORIES_PER_DIRECTORY && created < nbFiles; i++) {
+			int share = (nbFiles - created + DIRECTORIES_PER_DIRECTORY - i - 1) / (DIRECTORIES_PER_DIRECTORY - i);
+			created += fill(new Directory(dir, "dir" + i, true), level + 1, share);
+		}
+		return created;
+	}
+}
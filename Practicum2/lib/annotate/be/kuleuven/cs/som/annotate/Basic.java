@@ -0,0 +1,16 @@
+package be.kuleuven.cs.som.annotate;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+
+/**
+ * Marks a basic inspector or a basic property of a class.
+ *
+ * Stand-in for the annotation of the same name in AnnotationsDoclets.jar,
+ * which is not published to a Maven repository.
+ */
+@Documented
+@Retention(RetentionPolicy.CLASS)
+public @interface Basic {
+}
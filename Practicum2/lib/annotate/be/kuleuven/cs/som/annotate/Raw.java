@@ -0,0 +1,17 @@
+package be.kuleuven.cs.som.annotate;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+
+/**
+ * Marks a method that may be invoked on, or a parameter that may be, an object
+ * that does not satisfy all of its class invariants.
+ *
+ * Stand-in for the annotation of the same name in AnnotationsDoclets.jar,
+ * which is not published to a Maven repository.
+ */
+@Documented
+@Retention(RetentionPolicy.CLASS)
+public @interface Raw {
+}
@@ -0,0 +1,855 @@
+package filesystem;
+import be.kuleuven.cs.som.annotate.*;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A read-only columnar snapshot of a tree: its items as they were when it was
+ * made, kept in columns of primitive values instead of one object per item, so
+ * that large trees can be kept, looked up and saved away from the object model.
+ * It is a snapshot format, not a storage engine behind the usual classes: it can
+ * not be changed, and the trees of objects it is made from or restored to keep
+ * their own memory. It is made in full from a tree of objects with of(...), or
+ * from a saved snapshot with load(...), which reads the records straight into
+ * the columns without creating any objects for the items.
+ *
+ * Items are numbered breadth-first, starting with the root at ROOT, so the items
+ * of every directory have consecutive numbers and are sorted by name, like the
+ * contents of a directory. For every item the columns hold the number of its
+ * directory, its name, its times and its flags; for a file its size and type, and
+ * for a directory the range of its items and its totals. Names and types are
+ * kept once each, as UTF-8 bytes in a pool, and are referred to by number.
+ *
+ * The columns are kept on the Java heap, or with offHeap(...) and
+ * loadOffHeap(...) in direct buffers outside of it, so that the heap only holds
+ * the few objects of this class and the garbage collector never has to look at
+ * the items. Nothing frees the memory of an off-heap snapshot on request, closing
+ * it included: Java 8 has no way to free a direct buffer, so the memory is only
+ * freed once the garbage collector finds the buffers are no longer used, which
+ * the JVM also triggers itself when direct memory runs out. Closing a snapshot
+ * drops its own references to the buffers, so that they can be collected as soon
+ * as the lookups that still use them end. getOffHeapBytes() only counts the bytes
+ * of the off-heap snapshots that are not closed yet; it does not tell whether
+ * their memory was freed.
+ *
+ * Items are looked up by number with the methods of this class. toDirectory()
+ * restores the snapshot as an ordinary tree of objects, lazily: the items of a
+ * directory are copied out of the columns when its contents are first used. The
+ * copies are ordinary objects on the heap, which stay there and can be changed
+ * as usual; changes are never written back to the columns. Directories whose
+ * contents were not used yet can no longer be used once the snapshot is closed.
+ *
+ * A snapshot can be read by many threads at once, and closed while they read it:
+ * every lookup takes the columns once, and either finds the snapshot closed and
+ * throws an IllegalStateException, or ends on the columns it took.
+ */
+public final class ColumnarSnapshot implements Closeable {
+
+	/**
+	 * The number of the root of every columnar snapshot.
+	 */
+	public static final int ROOT = 0;
+
+	/**
+	 * The number returned for an item that does not exist.
+	 */
+	public static final int NONE = -1;
+
+	private static final byte DIRECTORY = 1;
+	private static final byte WRITABLE = 2;
+	private static final byte CONCURRENT = 4;
+
+	/**
+	 * The number of bytes held by all off-heap snapshots that are not closed.
+	 */
+	private static final AtomicLong offHeapBytes = new AtomicLong();
+
+	/**
+	 * Initialise a new snapshot with the columns filled in by the given builder, on the
+	 * heap or off the heap.
+	 */
+	private ColumnarSnapshot(Builder builder, boolean offHeap) {
+		this.offHeap = offHeap;
+		this.nbNodes = builder.nbNodes;
+		Columns columns = new Columns();
+		columns.parents = toColumn(builder.parents, nbNodes);
+		columns.names = toColumn(builder.names, nbNodes);
+		columns.links = toColumn(builder.links, nbNodes);
+		columns.counts = toColumn(builder.counts, nbNodes);
+		columns.descendants = toColumn(builder.descendants, nbNodes);
+		columns.sizes = toColumn(builder.sizes, nbNodes);
+		columns.creationTimes = toColumn(builder.creationTimes, nbNodes);
+		columns.modificationTimes = toColumn(builder.modificationTimes, nbNodes);
+		columns.flags = toColumn(builder.flags, nbNodes);
+		columns.stringOffsets = toColumn(builder.stringOffsets, builder.nbStrings + 1);
+		columns.stringBytes = toColumn(builder.stringBytes, builder.stringOffsets[builder.nbStrings]);
+		columns.quotas = builder.quotas;
+		this.columns = columns;
+		if (offHeap) offHeapBytes.addAndGet(columnSize);
+	}
+
+	/**
+	 * Return a columnar snapshot, on the heap, of the tree of the given root directory.
+	 * Directories that are changed while they are copied are copied as they were
+	 * at some moment.
+	 *
+	 * @param	root
+	 * 			The root of the tree to copy.
+	 * @return	| result.getNbNodes() == root.getTotalNbItems() + 1 && !result.isOffHeap()
+	 * @throws	IllegalArgumentException
+	 * 			| root == null || !root.isRoot()
+	 */
+	public static ColumnarSnapshot of(Directory root) throws IllegalArgumentException {
+		return new ColumnarSnapshot(new Builder(root), false);
+	}
+
+	/**
+	 * Return a columnar snapshot, off the heap, of the tree of the given root directory.
+	 * Its memory is only freed by the garbage collector, once the snapshot is no longer used.
+	 *
+	 * @param	root
+	 * 			The root of the tree to copy.
+	 * @return	| result.getNbNodes() == root.getTotalNbItems() + 1 && result.isOffHeap()
+	 * @throws	IllegalArgumentException
+	 * 			| root == null || !root.isRoot()
+	 * @throws	IllegalArgumentException
+	 * 			One of the columns would need more than 2 GiB.
+	 */
+	public static ColumnarSnapshot offHeap(Directory root) throws IllegalArgumentException {
+		return new ColumnarSnapshot(new Builder(root), true);
+	}
+
+	/**
+	 * Return a columnar snapshot, on the heap, with the items of the snapshot in the given
+	 * channel, as written by Snapshot.save. The records are read into the columns
+	 * directly: no file or directory objects are created.
+	 *
+	 * @param	channel
+	 * 			The channel to read the snapshot from. It is not closed.
+	 * @return	| !result.isOffHeap()
+	 * @throws	IOException
+	 * 			The snapshot could not be read, is of an unknown version or is damaged.
+	 */
+	public static ColumnarSnapshot load(ReadableByteChannel channel) throws IOException {
+		return new ColumnarSnapshot(new Builder(Snapshot.Reader.open(channel)), false);
+	}
+
+	/**
+	 * Return a columnar snapshot, off the heap, with the items of the snapshot in the given
+	 * channel, like load. Its memory is only freed by the garbage collector, once the
+	 * snapshot is no longer used.
+	 *
+	 * @param	channel
+	 * 			The channel to read the snapshot from. It is not closed.
+	 * @return	| result.isOffHeap()
+	 * @throws	IOException
+	 * 			The snapshot could not be read, is of an unknown version or is damaged.
+	 * @throws	IllegalArgumentException
+	 * 			One of the columns would need more than 2 GiB.
+	 */
+	public static ColumnarSnapshot loadOffHeap(ReadableByteChannel channel) throws IOException, IllegalArgumentException {
+		return new ColumnarSnapshot(new Builder(Snapshot.Reader.open(channel)), true);
+	}
+
+	/**
+	 * Return the number of bytes of memory outside the heap taken by the columns of
+	 * all off-heap snapshots that are not closed yet. The memory of closed snapshots is not
+	 * counted, whether the garbage collector freed it already or not.
+	 */
+	public static long getOffHeapBytes() {
+		return offHeapBytes.get();
+	}
+
+	/**
+	 * Variable registering whether the columns of this snapshot are kept outside the heap.
+	 */
+	private final boolean offHeap;
+
+	/**
+	 * Variable registering the number of bytes taken by the columns of this snapshot.
+	 */
+	private long columnSize = 0;
+
+	/**
+	 * Variable referencing the columns of this snapshot, null once it is closed.
+	 */
+	private volatile Columns columns;
+
+	/**
+	 * Variable registering the number of items in this snapshot, the root included.
+	 */
+	private final int nbNodes;
+
+	/**
+	 * The columns of a snapshot. They are filled in before the snapshot is published and
+	 * never changed afterwards.
+	 */
+	private static final class Columns {
+
+		/**
+		 * The number of the directory of every item, NONE for the root.
+		 */
+		IntBuffer parents;
+
+		/**
+		 * The number of the name of every item in the pool.
+		 */
+		IntBuffer names;
+
+		/**
+		 * For a directory the number of its first item, for a file the number of its type in the pool.
+		 */
+		IntBuffer links;
+
+		/**
+		 * For a directory the number of its items, 0 for a file.
+		 */
+		IntBuffer counts;
+
+		/**
+		 * For a directory the number of items anywhere below it, 0 for a file.
+		 */
+		IntBuffer descendants;
+
+		/**
+		 * For a file its size, for a directory the total size of all files below it.
+		 */
+		LongBuffer sizes;
+
+		LongBuffer creationTimes;
+
+		LongBuffer modificationTimes;
+
+		ByteBuffer flags;
+
+		/**
+		 * The start of every string in the pool, followed by the end of the last one.
+		 */
+		IntBuffer stringOffsets;
+
+		/**
+		 * The UTF-8 bytes of all strings in the pool.
+		 */
+		ByteBuffer stringBytes;
+
+		/**
+		 * The quotas of the few directories that have any, by number.
+		 */
+		HashMap<Integer, long[]> quotas;
+
+		/**
+		 * Return the string with the given number in the pool.
+		 */
+		String getString(int number) {
+			int start = stringOffsets.get(number), length = stringOffsets.get(number + 1) - start;
+			if (stringBytes.hasArray()) return new String(stringBytes.array(), start, length, StandardCharsets.UTF_8);
+			byte[] bytes = new byte[length];
+			for (int i = 0; i < length; i++) bytes[i] = stringBytes.get(start + i);
+			return new String(bytes, StandardCharsets.UTF_8);
+		}
+
+	}
+
+	/**
+	 * Return whether the columns of this snapshot are kept outside the heap.
+	 */
+	@Basic @Immutable
+	public boolean isOffHeap() {
+		return offHeap;
+	}
+
+	/**
+	 * Return the number of bytes taken by the columns of this snapshot, on or off the heap.
+	 */
+	@Basic @Immutable
+	public long getColumnSize() {
+		return columnSize;
+	}
+
+	/**
+	 * Return whether this snapshot is closed.
+	 */
+	@Basic
+	public boolean isClosed() {
+		return columns == null;
+	}
+
+	/**
+	 * Close this snapshot. Items can no longer be looked up, and directories made by
+	 * toDirectory() whose contents were not used yet can no longer be used. Lookups
+	 * that started before still end normally. Closing does not free the memory of
+	 * the columns: it only drops the references of this snapshot to them, after which
+	 * the garbage collector can free them. Closing a closed snapshot has no effect.
+	 *
+	 * @post	| new.isClosed()
+	 */
+	@Override
+	public void close() {
+		synchronized (this) {
+			if (columns == null) return;
+			columns = null;
+		}
+		if (offHeap) offHeapBytes.addAndGet(-columnSize);
+	}
+
+	private IntBuffer toColumn(int[] values, int length) {
+		columnSize += length * 4L;
+		if (!offHeap) return IntBuffer.wrap(Arrays.copyOf(values, length));
+		IntBuffer column = allocate(length * 4L).asIntBuffer();
+		column.put(values, 0, length);
+		return column;
+	}
+
+	private LongBuffer toColumn(long[] values, int length) {
+		columnSize += length * 8L;
+		if (!offHeap) return LongBuffer.wrap(Arrays.copyOf(values, length));
+		LongBuffer column = allocate(length * 8L).asLongBuffer();
+		column.put(values, 0, length);
+		return column;
+	}
+
+	private ByteBuffer toColumn(byte[] values, int length) {
+		columnSize += length;
+		if (!offHeap) return ByteBuffer.wrap(Arrays.copyOf(values, length));
+		ByteBuffer column = allocate(length);
+		column.put(values, 0, length);
+		return column;
+	}
+
+	/**
+	 * Allocate a direct buffer of the given number of bytes, in the native byte order.
+	 */
+	private static ByteBuffer allocate(long bytes) throws IllegalArgumentException {
+		if (bytes > Integer.MAX_VALUE) throw new IllegalArgumentException("The tree is too large to keep off the heap.");
+		return ByteBuffer.allocateDirect((int) bytes).order(ByteOrder.nativeOrder());
+	}
+
+	/**
+	 * Return the number of items in this snapshot, the root included.
+	 */
+	@Basic @Immutable
+	public int getNbNodes() {
+		return nbNodes;
+	}
+
+	/**
+	 * Check whether the given number is the number of an item in this snapshot.
+	 *
+	 * @return	| result == (node >= ROOT && node < getNbNodes())
+	 */
+	public boolean isValidNode(int node) {
+		return node >= ROOT && node < nbNodes;
+	}
+
+	/**
+	 * Return the columns of this snapshot, after checking that it is not closed and that
+	 * the given number is the number of one of its items. A lookup reads all columns
+	 * through the result, so that closing the snapshot meanwhile can not affect it.
+	 */
+	private Columns checkNode(int node) throws IllegalArgumentException, IllegalStateException {
+		Columns columns = this.columns;
+		if (columns == null) throw new IllegalStateException("The snapshot is closed.");
+		if (!isValidNode(node)) throw new IllegalArgumentException("No item has number " + node + ".");
+		return columns;
+	}
+
+	/**
+	 * Check whether the item with the given number is a directory.
+	 *
+	 * @throws	IllegalArgumentException
+	 * 			| !isValidNode(node)
+	 * @throws	IllegalStateException
+	 * 			| isClosed()
+	 */
+	public boolean isDirectory(int node) throws IllegalArgumentException, IllegalStateException {
+		Columns columns = checkNode(node);
+		return (columns.flags.get(node) & DIRECTORY) != 0;
+	}
+
+	/**
+	 * Return the name of the item with the given number.
+	 *
+	 * @throws	IllegalArgumentException
+	 * 			| !isValidNode(node)
+	 * @throws	IllegalStateException
+	 * 			| isClosed()
+	 */
+	public String getName(int node) throws IllegalArgumentException, IllegalStateException {
+		Columns columns = checkNode(node);
+		return columns.getString(columns.names.get(node));
+	}
+
+	/**
+	 * Return the number of the directory of the item with the given number, NONE for the root.
+	 *
+	 * @throws	IllegalArgumentException
+	 * 			| !isValidNode(node)
+	 * @throws	IllegalStateException
+	 * 			| isClosed()
+	 */
+	public int getParent(int node) throws IllegalArgumentException, IllegalStateException {
+		Columns columns = checkNode(node);
+		return columns.parents.get(node);
+	}
+
+	/**
+	 * Check whether the item with the given number was writable.
+	 *
+	 * @throws	IllegalArgumentException
+	 * 			| !isValidNode(node)
+	 * @throws	IllegalStateException
+	 * 			| isClosed()
+	 */
+	public boolean isWritable(int node) throws IllegalArgumentException, IllegalStateException {
+		Columns columns = checkNode(node);
+		return (columns.flags.get(node) & WRITABLE) != 0;
+	}
+
+	/**
+	 * Return the size of the file with the given number, or the total size of all
+	 * files below the directory with the given number.
+	 *
+	 * @throws	IllegalArgumentException
+	 * 			| !isValidNode(node)
+	 * @throws	IllegalStateException
+	 * 			| isClosed()
+	 */
+	public long getSize(int node) throws IllegalArgumentException, IllegalStateException {
+		Columns columns = checkNode(node);
+		return columns.sizes.get(node);
+	}
+
+	/**
+	 * Return the type of the file with the given number, null for a directory.
+	 *
+	 * @throws	IllegalArgumentException
+	 * 			| !isValidNode(node)
+	 * @throws	IllegalStateException
+	 * 			| isClosed()
+	 */
+	public FileType getType(int node) throws IllegalArgumentException, IllegalStateException {
+		Columns columns = checkNode(node);
+		if ((columns.flags.get(node) & DIRECTORY) != 0) return null;
+		return FileType.register(columns.getString(columns.links.get(node)));
+	}
+
+	public long getCreationTime(int node) throws IllegalArgumentException, IllegalStateException {
+		Columns columns = checkNode(node);
+		return columns.creationTimes.get(node);
+	}
+
+	public long getModificationTime(int node) throws IllegalArgumentException, IllegalStateException {
+		Columns columns = checkNode(node);
+		return columns.modificationTimes.get(node);
+	}
+
+	/**
+	 * Return the number of items in the directory with the given number, 0 for a file.
+	 *
+	 * @throws	IllegalArgumentException
+	 * 			| !isValidNode(node)
+	 * @throws	IllegalStateException
+	 * 			| isClosed()
+	 */
+	public int getNbItems(int node) throws IllegalArgumentException, IllegalStateException {
+		Columns columns = checkNode(node);
+		return columns.counts.get(node);
+	}
+
+	/**
+	 * Return the number of items anywhere below the directory with the given number, 0 for a file.
+	 *
+	 * @throws	IllegalArgumentException
+	 * 			| !isValidNode(node)
+	 * @throws	IllegalStateException
+	 * 			| isClosed()
+	 */
+	public int getTotalNbItems(int node) throws IllegalArgumentException, IllegalStateException {
+		Columns columns = checkNode(node);
+		return columns.descendants.get(node);
+	}
+
+	/**
+	 * Return the number of the item at the given index in the directory with the
+	 * given number. Like the contents of a directory, the first index is 1.
+	 *
+	 * @throws	IllegalArgumentException
+	 * 			| !isDirectory(node) || index < 1 || index > getNbItems(node)
+	 * @throws	IllegalStateException
+	 * 			| isClosed()
+	 */
+	public int getItemAt(int node, int index) throws IllegalArgumentException, IllegalStateException {
+		Columns columns = checkNode(node);
+		if ((columns.flags.get(node) & DIRECTORY) == 0 || index < 1 || index > columns.counts.get(node))
+			throw new IllegalArgumentException("No item at index " + index + ".");
+		return columns.links.get(node) + index - 1;
+	}
+
+	/**
+	 * Return the number of the item with the given name in the directory with the
+	 * given number, ignoring case, or NONE if there is none. The items of the
+	 * directory are searched by bisection.
+	 *
+	 * @throws	IllegalArgumentException
+	 * 			| !isValidNode(node)
+	 * @throws	IllegalStateException
+	 * 			| isClosed()
+	 */
+	public int getItem(int node, String name) throws IllegalArgumentException, IllegalStateException {
+		Columns columns = checkNode(node);
+		if ((columns.flags.get(node) & DIRECTORY) == 0 || name == null) return NONE;
+		int low = columns.links.get(node), high = columns.links.get(node) + columns.counts.get(node) - 1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			int comparison = String.CASE_INSENSITIVE_ORDER.compare(columns.getString(columns.names.get(middle)), name);
+			if (comparison < 0) low = middle + 1;
+			else if (comparison > 0) high = middle - 1;
+			else return middle;
+		}
+		return NONE;
+	}
+
+	/**
+	 * Return the number of the item at the given path from the root, ignoring case
+	 * and empty names, or NONE if there is none.
+	 *
+	 * @throws	IllegalStateException
+	 * 			| isClosed()
+	 */
+	public int resolve(String path) throws IllegalStateException {
+		if (path == null) return NONE;
+		int node = ROOT;
+		int start = 0;
+		while (start < path.length() && node != NONE) {
+			int end = path.indexOf('/', start);
+			if (end < 0) end = path.length();
+			if (end > start) node = getItem(node, path.substring(start, end));
+			start = end + 1;
+		}
+		return node;
+	}
+
+	/**
+	 * Return the path of the item with the given number from the root, like getPath() of an item.
+	 *
+	 * @throws	IllegalArgumentException
+	 * 			| !isValidNode(node)
+	 * @throws	IllegalStateException
+	 * 			| isClosed()
+	 */
+	public String getPath(int node) throws IllegalArgumentException, IllegalStateException {
+		Columns columns = checkNode(node);
+		if (node == ROOT) return "/";
+		ArrayList<String> path = new ArrayList<>();
+		for (int current = node; current != ROOT; current = columns.parents.get(current)) path.add(columns.getString(columns.names.get(current)));
+		StringBuilder result = new StringBuilder();
+		for (int i = path.size() - 1; i >= 0; i--) result.append('/').append(path.get(i));
+		return result.toString();
+	}
+
+	/**
+	 * Restore this snapshot as a new tree of objects and return its root. The
+	 * contents of its directories are copied out of the columns when they are
+	 * first used, and are then kept on the heap like those of any directory.
+	 *
+	 * @return	| result.isRoot() && result.getTotalNbItems() == getTotalNbItems(ROOT)
+	 * @throws	IllegalStateException
+	 * 			| isClosed()
+	 */
+	public Directory toDirectory() throws IllegalStateException {
+		return (Directory) materialise(checkNode(ROOT), ROOT, null);
+	}
+
+	/**
+	 * Create the item with the given number in the given directory, which was
+	 * created for the directory of the item.
+	 */
+	private FilesystemItem materialise(Columns columns, int node, Directory parent) {
+		String name = columns.getString(columns.names.get(node));
+		byte flag = columns.flags.get(node);
+		boolean writable = (flag & WRITABLE) != 0;
+		FilesystemItem item;
+		if ((flag & DIRECTORY) != 0) {
+			Directory dir = new Directory(null, name, writable, (flag & CONCURRENT) != 0);
+			long[] quota = columns.quotas.get(node);
+			if (quota != null) {
+				dir.setByteQuota(quota[0]);
+				dir.setItemQuota(quota[1]);
+			}
+			dir.restoreTotals(columns.sizes.get(node), columns.descendants.get(node));
+			if (columns.counts.get(node) > 0) dir.setLazyContents(loaded -> materialiseContents(node, loaded));
+			item = dir;
+		} else {
+			String type = columns.getString(columns.links.get(node));
+			FileType.register(type);
+			item = new File(null, name, (int) columns.sizes.get(node), writable, type);
+		}
+		item.restoreTimes(columns.creationTimes.get(node), columns.modificationTimes.get(node));
+		if (parent != null) item.restorePosition(parent);
+		return item;
+	}
+
+	private ArrayList<FilesystemItem> materialiseContents(int node, Directory dir) {
+		Columns columns = checkNode(node);
+		int first = columns.links.get(node), count = columns.counts.get(node);
+		ArrayList<FilesystemItem> items = new ArrayList<>(count);
+		for (int child = first; child < first + count; child++) items.add(materialise(columns, child, dir));
+		return items;
+	}
+
+	/**
+	 * Fills in growable columns on the heap with the items of a tree, breadth-first.
+	 */
+	private static final class Builder {
+
+		Builder(Directory root) throws IllegalArgumentException {
+			if (root == null || !root.isRoot()) throw new IllegalArgumentException("Only the root of a tree can be copied.");
+			allocate((int) Math.min(root.getTotalNbItems() + 1, Integer.MAX_VALUE - 8));
+			ArrayDeque<Directory> directories = new ArrayDeque<>();
+			ArrayList<FilesystemItem> contents = new ArrayList<>();
+			append(root, NONE);
+			directories.add(root);
+			for (int node = ROOT; node < nbNodes; node++) {
+				if ((flags[node] & DIRECTORY) == 0) continue;
+				contents.clear();
+				directories.poll().addContentsTo(contents);
+				links[node] = nbNodes;
+				counts[node] = contents.size();
+				for (FilesystemItem item: contents) {
+					append(item, node);
+					if (item instanceof Directory) directories.add((Directory) item);
+				}
+			}
+			for (int node = nbNodes - 1; node > ROOT; node--) {
+				sizes[parents[node]] += sizes[node];
+				descendants[parents[node]] += 1 + descendants[node];
+			}
+		}
+
+		/**
+		 * Read the records of a snapshot into the columns. The records come in pre-order,
+		 * so they are first kept in that order, and then renumbered breadth-first.
+		 */
+		Builder(Snapshot.Reader reader) throws IOException {
+			allocate(1 << 10);
+			int[] levels = new int[16];
+			int[] remaining = new int[16];
+			String[] lastNames = new String[16];
+			int depth = 0;
+			do {
+				reader.readRecord();
+				if (nbNodes == Integer.MAX_VALUE - 8) throw new StreamCorruptedException("The snapshot holds too many items.");
+				int parent = (depth == 0) ? NONE : levels[depth - 1];
+				if (parent != NONE) {
+					if (lastNames[depth - 1] != null && String.CASE_INSENSITIVE_ORDER.compare(lastNames[depth - 1], reader.name) >= 0)
+						throw new StreamCorruptedException("The contents of a directory are not sorted by name.");
+					lastNames[depth - 1] = reader.name;
+					remaining[depth - 1]--;
+				}
+				int node = append(reader, parent);
+				if ((flags[node] & DIRECTORY) != 0) {
+					if (reader.lastNbItems > Integer.MAX_VALUE) throw new StreamCorruptedException("Too many items in a directory.");
+					if (depth == levels.length) {
+						levels = Arrays.copyOf(levels, depth * 2);
+						remaining = Arrays.copyOf(remaining, depth * 2);
+						lastNames = Arrays.copyOf(lastNames, depth * 2);
+					}
+					levels[depth] = node;
+					remaining[depth] = (int) reader.lastNbItems;
+					lastNames[depth] = null;
+					depth++;
+				} else if (parent == NONE) {
+					throw new StreamCorruptedException("The root of a snapshot must be a directory.");
+				}
+				while (depth > 0 && remaining[depth - 1] == 0) depth--;
+			} while (depth > 0);
+			for (int node = nbNodes - 1; node > ROOT; node--) {
+				sizes[parents[node]] += sizes[node];
+				descendants[parents[node]] += 1 + descendants[node];
+			}
+			renumberBreadthFirst();
+		}
+
+		/**
+		 * Give the items, which are numbered in pre-order, their numbers in breadth-first
+		 * order. In pre-order the first item of a directory follows the directory, and every
+		 * next item follows all items below the one before it.
+		 */
+		private void renumberBreadthFirst() {
+			int[] order = new int[nbNodes];
+			int[] numbers = new int[nbNodes];
+			int next = 1;
+			for (int number = ROOT; number < nbNodes; number++) {
+				int node = order[number];
+				if ((flags[node] & DIRECTORY) == 0) continue;
+				for (int i = 0, child = node + 1; i < counts[node]; i++, child += 1 + descendants[child]) {
+					order[next] = child;
+					numbers[child] = next++;
+				}
+			}
+			int[] renumbered = new int[nbNodes];
+			for (int number = ROOT; number < nbNodes; number++) {
+				int node = order[number];
+				renumbered[number] = (parents[node] == NONE) ? NONE : numbers[parents[node]];
+			}
+			parents = renumbered;
+			renumbered = new int[nbNodes];
+			for (int number = ROOT; number < nbNodes; number++) {
+				int node = order[number];
+				if ((flags[node] & DIRECTORY) == 0) renumbered[number] = links[node];
+				else if (counts[node] > 0) renumbered[number] = numbers[node + 1];
+			}
+			links = renumbered;
+			names = permute(names, order);
+			counts = permute(counts, order);
+			descendants = permute(descendants, order);
+			sizes = permute(sizes, order);
+			creationTimes = permute(creationTimes, order);
+			modificationTimes = permute(modificationTimes, order);
+			byte[] permuted = new byte[nbNodes];
+			for (int number = ROOT; number < nbNodes; number++) permuted[number] = flags[order[number]];
+			flags = permuted;
+			HashMap<Integer, long[]> renumberedQuotas = new HashMap<>();
+			for (Integer node: quotas.keySet()) renumberedQuotas.put(numbers[node], quotas.get(node));
+			quotas.clear();
+			quotas.putAll(renumberedQuotas);
+		}
+
+		private int[] permute(int[] column, int[] order) {
+			int[] permuted = new int[nbNodes];
+			for (int number = ROOT; number < nbNodes; number++) permuted[number] = column[order[number]];
+			return permuted;
+		}
+
+		private long[] permute(long[] column, int[] order) {
+			long[] permuted = new long[nbNodes];
+			for (int number = ROOT; number < nbNodes; number++) permuted[number] = column[order[number]];
+			return permuted;
+		}
+
+		/**
+		 * Add a column entry for the item of the last record read by the given reader,
+		 * in the directory with the given number, and return its number.
+		 */
+		int append(Snapshot.Reader reader, int parent) {
+			if (nbNodes == parents.length) grow();
+			int node = nbNodes++;
+			parents[node] = parent;
+			names[node] = intern(reader.name);
+			creationTimes[node] = reader.creationTime;
+			modificationTimes[node] = reader.modificationTime;
+			byte flag = ((reader.flags & Snapshot.WRITABLE) != 0) ? WRITABLE : 0;
+			if ((reader.flags & Snapshot.DIRECTORY) != 0) {
+				flag |= DIRECTORY;
+				if ((reader.flags & Snapshot.CONCURRENT) != 0) flag |= CONCURRENT;
+				counts[node] = (int) Math.min(reader.lastNbItems, Integer.MAX_VALUE);
+				if (reader.byteQuota != Directory.NO_QUOTA || reader.itemQuota != Directory.NO_QUOTA)
+					quotas.put(node, new long[] {reader.byteQuota, reader.itemQuota});
+			} else {
+				sizes[node] = reader.size;
+				links[node] = intern(reader.type);
+			}
+			flags[node] = flag;
+			return node;
+		}
+
+		private void allocate(int capacity) {
+			parents = new int[capacity];
+			names = new int[capacity];
+			links = new int[capacity];
+			counts = new int[capacity];
+			descendants = new int[capacity];
+			sizes = new long[capacity];
+			creationTimes = new long[capacity];
+			modificationTimes = new long[capacity];
+			flags = new byte[capacity];
+		}
+
+		int nbNodes = 0;
+		int[] parents;
+		int[] names;
+		int[] links;
+		int[] counts;
+		int[] descendants;
+		long[] sizes;
+		long[] creationTimes;
+		long[] modificationTimes;
+		byte[] flags;
+		final HashMap<Integer, long[]> quotas = new HashMap<>();
+
+		/**
+		 * The numbers of the strings in the pool.
+		 */
+		final HashMap<String, Integer> strings = new HashMap<>();
+		byte[] stringBytes = new byte[1 << 12];
+		int[] stringOffsets = new int[1 << 8];
+		int nbStrings = 0;
+
+		/**
+		 * Add a column entry for the given item, in the directory with the given number.
+		 */
+		void append(FilesystemItem item, int parent) {
+			if (nbNodes == parents.length) grow();
+			int node = nbNodes++;
+			parents[node] = parent;
+			names[node] = intern(item.getName());
+			creationTimes[node] = item.getCreationTimeMillis();
+			modificationTimes[node] = item.getModificationTimeMillis();
+			byte flag = item.isWritable() ? WRITABLE : 0;
+			if (item instanceof Directory) {
+				Directory dir = (Directory) item;
+				flag |= DIRECTORY;
+				if (dir.isConcurrent()) flag |= CONCURRENT;
+				if (dir.getByteQuota() != Directory.NO_QUOTA || dir.getItemQuota() != Directory.NO_QUOTA)
+					quotas.put(node, new long[] {dir.getByteQuota(), dir.getItemQuota()});
+			} else {
+				sizes[node] = ((File) item).getSize();
+				links[node] = intern(((File) item).getType().getName());
+			}
+			flags[node] = flag;
+		}
+
+		void grow() {
+			int capacity = Math.max(16, (int) Math.min(parents.length * 2L, Integer.MAX_VALUE - 8));
+			parents = Arrays.copyOf(parents, capacity);
+			names = Arrays.copyOf(names, capacity);
+			links = Arrays.copyOf(links, capacity);
+			counts = Arrays.copyOf(counts, capacity);
+			descendants = Arrays.copyOf(descendants, capacity);
+			sizes = Arrays.copyOf(sizes, capacity);
+			creationTimes = Arrays.copyOf(creationTimes, capacity);
+			modificationTimes = Arrays.copyOf(modificationTimes, capacity);
+			flags = Arrays.copyOf(flags, capacity);
+		}
+
+		/**
+		 * Return the number of the given string, adding it to the pool if it is not there yet.
+		 */
+		int intern(String string) {
+			Integer number = strings.get(string);
+			if (number != null) return number;
+			byte[] encoded = string.getBytes(StandardCharsets.UTF_8);
+			if (nbStrings + 1 == stringOffsets.length) stringOffsets = Arrays.copyOf(stringOffsets, stringOffsets.length * 2);
+			int start = stringOffsets[nbStrings];
+			if (start + encoded.length > stringBytes.length)
+				stringBytes = Arrays.copyOf(stringBytes, Math.max(stringBytes.length * 2, start + encoded.length));
+			System.arraycopy(encoded, 0, stringBytes, start, encoded.length);
+			stringOffsets[nbStrings + 1] = start + encoded.length;
+			strings.put(string, nbStrings);
+			return nbStrings++;
+		}
+	}
+}
@@ -0,0 +1,196 @@
+package filesystem;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.channels.Channels;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.*;
+
+/**
+ * A JUnit test class for columnar snapshots of trees.
+ *
+ */
+public class ColumnarSnapshotTest {
+
+	Directory root;
+	Directory subDirectory;
+	File fileInRoot;
+	long offHeapBytes;
+
+	@Before
+	public void setUpFixture(){
+		root = new Directory("root");
+		subDirectory = new Directory(root, "Sub", true);
+		fileInRoot = new File(root, "bestand", "txt");
+		offHeapBytes = ColumnarSnapshot.getOffHeapBytes();
+	}
+
+	@After
+	public void checkNoOffHeapLeaks(){
+		assertEquals("An off-heap tree was not closed.", offHeapBytes, ColumnarSnapshot.getOffHeapBytes());
+	}
+
+	@Test
+	public void testOf_ColumnsMatchTree() {
+		Directory dir = new Directory(subDirectory, "dir", true);
+		for (int i = 0; i < 100; i++) new File(dir, "file" + (i * 37 % 100), i, i % 2 == 0, "java");
+		fileInRoot.enlarge(42);
+		subDirectory.setItemQuota(500);
+		ColumnarSnapshot tree = ColumnarSnapshot.of(root);
+
+		assertEquals(root.getTotalNbItems() + 1, tree.getNbNodes());
+		assertEquals("root", tree.getName(ColumnarSnapshot.ROOT));
+		assertEquals(root.getTotalSize(), tree.getSize(ColumnarSnapshot.ROOT));
+		assertEquals(2, tree.getNbItems(ColumnarSnapshot.ROOT));
+		assertEquals("bestand", tree.getName(tree.getItemAt(ColumnarSnapshot.ROOT, 1)));
+		int file = tree.resolve("/SUB/dir/file7");
+		assertEquals("file7", tree.getName(file));
+		assertEquals(7 * 73 % 100, tree.getSize(file));
+		assertSame(FileType.JAVA, tree.getType(file));
+		assertEquals("/Sub/dir/file7", tree.getPath(file));
+		assertEquals(tree.resolve("/Sub/dir"), tree.getParent(file));
+		assertEquals(ColumnarSnapshot.NONE, tree.resolve("/Sub/nothing"));
+		assertEquals(dir.getTotalSize(), tree.getSize(tree.resolve("/Sub/dir")));
+		assertEquals(101, tree.getTotalNbItems(tree.resolve("/Sub")));
+		assertEquals(fileInRoot.getModificationTimeMillis(), tree.getModificationTime(tree.resolve("bestand")));
+	}
+
+	@Test
+	public void testToDirectory_CreatesItemsWhenUsed() {
+		for (int i = 0; i < 10; i++) new File(subDirectory, "file" + i, i, true, "pdf");
+		subDirectory.setByteQuota(100);
+		Directory copy = ColumnarSnapshot.of(root).toDirectory();
+
+		assertFalse(copy.hasLoadedContents());
+		assertEquals(root.getTotalSize(), copy.getTotalSize());
+		assertEquals(root.getTotalNbItems(), copy.getTotalNbItems());
+		Directory sub = (Directory) copy.getItem("sub");
+		assertFalse(sub.hasLoadedContents());
+		assertEquals(100, sub.getByteQuota());
+		File file = (File) copy.resolve("/Sub/file3");
+		assertEquals(3, file.getSize());
+		assertSame(FileType.PDF, file.getType());
+		assertEquals(2, file.getDepth());
+		assertSame(copy, file.getRoot());
+		file.enlarge(10);
+		assertEquals(root.getTotalSize() + 10, copy.getTotalSize());
+		new File(sub, "new", 5, true, "txt");
+		assertEquals(11, sub.getNbItems());
+		assertEquals(10, subDirectory.getNbItems());
+	}
+
+	@Test
+	public void testOffHeap_SameAsOnHeap() {
+		for (int i = 0; i < 50; i++) new File(new Directory(subDirectory, "dir" + i, true), "file_" + i, i, true, "pdf");
+		ColumnarSnapshot onHeap = ColumnarSnapshot.of(root);
+		try (ColumnarSnapshot offHeap = ColumnarSnapshot.offHeap(root)) {
+			assertTrue(offHeap.isOffHeap());
+			assertEquals(offHeapBytes + offHeap.getColumnSize(), ColumnarSnapshot.getOffHeapBytes());
+			assertEquals(onHeap.getNbNodes(), offHeap.getNbNodes());
+			for (int node = ColumnarSnapshot.ROOT; node < onHeap.getNbNodes(); node++){
+				assertEquals(onHeap.getPath(node), offHeap.getPath(node));
+				assertEquals(onHeap.getSize(node), offHeap.getSize(node));
+				assertEquals(onHeap.getCreationTime(node), offHeap.getCreationTime(node));
+			}
+			assertEquals(onHeap.resolve("/sub/DIR7/file_7"), offHeap.resolve("/sub/DIR7/file_7"));
+			Directory copy = offHeap.toDirectory();
+			assertEquals(7, ((File) copy.resolve("/Sub/dir7/file_7")).getSize());
+		}
+	}
+
+	@Test
+	public void testClose_NoLongerCounted() {
+		ColumnarSnapshot tree = ColumnarSnapshot.offHeap(root);
+		assertTrue(ColumnarSnapshot.getOffHeapBytes() > offHeapBytes);
+		tree.close();
+		tree.close();
+		assertTrue(tree.isClosed());
+		assertEquals(offHeapBytes, ColumnarSnapshot.getOffHeapBytes());
+	}
+
+	@Test
+	public void testClose_WhileReading() throws Exception {
+		for (int i = 0; i < 100; i++) new File(subDirectory, "file" + i, i, true, "txt");
+		ColumnarSnapshot tree = ColumnarSnapshot.offHeap(root);
+		AtomicReference<Throwable> failure = new AtomicReference<>();
+		Thread[] readers = new Thread[4];
+		for (int i = 0; i < readers.length; i++){
+			readers[i] = new Thread(() -> {
+				try {
+					while (true) {
+						int node = tree.resolve("/Sub/file42");
+						assertEquals("/Sub/file42", tree.getPath(node));
+						assertEquals(42, tree.getSize(node));
+					}
+				} catch (IllegalStateException e) {
+					// The tree was closed.
+				} catch (Throwable e) {
+					failure.set(e);
+				}
+			});
+			readers[i].start();
+		}
+		Thread.sleep(50);
+		tree.close();
+		for (Thread reader: readers) reader.join(10000);
+		assertNull(failure.get());
+	}
+
+	@Test (expected = IllegalStateException.class)
+	public void testClose_NoLookupsAfterwards() {
+		ColumnarSnapshot tree = ColumnarSnapshot.offHeap(root);
+		Directory copy = tree.toDirectory();
+		tree.close();
+		copy.getItem("bestand");
+	}
+
+	@Test
+	public void testLoad_SameAsOf() throws IOException {
+		for (int i = 0; i < 20; i++){
+			Directory dir = new Directory(i % 2 == 0 ? root : subDirectory, "dir" + (i * 7 % 20), true);
+			for (int j = 0; j < i; j++) new File(dir, "file" + j, i * j, j % 2 == 0, (j % 3 == 0) ? "java" : "txt");
+			dir.setWritable(i % 3 != 0);
+		}
+		subDirectory.setByteQuota(100000);
+		fileInRoot.enlarge(3);
+		ByteArrayOutputStream saved = new ByteArrayOutputStream();
+		Snapshot.save(root, Channels.newChannel(saved));
+		ColumnarSnapshot copied = ColumnarSnapshot.of(root);
+		ColumnarSnapshot loaded = ColumnarSnapshot.load(Channels.newChannel(new ByteArrayInputStream(saved.toByteArray())));
+		assertEquals(copied.getNbNodes(), loaded.getNbNodes());
+		for (int node = ColumnarSnapshot.ROOT; node < copied.getNbNodes(); node++){
+			assertEquals(copied.getPath(node), loaded.getPath(node));
+			assertEquals(copied.getParent(node), loaded.getParent(node));
+			assertEquals(copied.getSize(node), loaded.getSize(node));
+			assertEquals(copied.getNbItems(node), loaded.getNbItems(node));
+			assertEquals(copied.getTotalNbItems(node), loaded.getTotalNbItems(node));
+			assertEquals(copied.isWritable(node), loaded.isWritable(node));
+			assertEquals(copied.getType(node), loaded.getType(node));
+			assertEquals(copied.getModificationTime(node), loaded.getModificationTime(node));
+		}
+		assertEquals(100000, ((Directory) loaded.toDirectory().getItem("sub")).getByteQuota());
+		try (ColumnarSnapshot offHeap = ColumnarSnapshot.loadOffHeap(Channels.newChannel(new ByteArrayInputStream(saved.toByteArray())))) {
+			assertEquals(copied.resolve("/Sub/dir7/file3"), offHeap.resolve("/Sub/dir7/file3"));
+		}
+	}
+
+	@Test (expected = StreamCorruptedException.class)
+	public void testLoad_NotASnapshot() throws IOException {
+		ColumnarSnapshot.load(Channels.newChannel(new ByteArrayInputStream(new byte[] {1, 2, 3, 4, 5})));
+	}
+
+	@Test (expected = IllegalArgumentException.class)
+	public void testGetName_NoSuchNode() {
+		ColumnarSnapshot.of(root).getName(3);
+	}
+
+	@Test (expected = IllegalArgumentException.class)
+	public void testOf_NotARoot() {
+		ColumnarSnapshot.of(subDirectory);
+	}
+
+}
@@ -0,0 +1,183 @@
+package filesystem;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.*;
+
+/**
+ * A JUnit stress test class for directories that are shared between threads.
+ *
+ */
+public class ConcurrentDirectoryTest {
+
+	private static final int THREADS = 8;
+
+	ExecutorService executor;
+
+	@Before
+	public void setUpFixture(){
+		executor = Executors.newFixedThreadPool(THREADS);
+	}
+
+	@After
+	public void tearDownFixture(){
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Runs the given task on all threads at once and waits for all of them.
+	 */
+	private void runOnAllThreads(Callable<Void> task) throws Exception {
+		CountDownLatch start = new CountDownLatch(1);
+		ArrayList<Future<Void>> futures = new ArrayList<>();
+		for (int i = 0; i < THREADS; i++){
+			futures.add(executor.submit(() -> {
+				start.await();
+				return task.call();
+			}));
+		}
+		start.countDown();
+		for (Future<Void> future: futures){
+			future.get(60, TimeUnit.SECONDS);
+		}
+	}
+
+	@Test
+	public void testAddItem_SameNamesAddedOnce() throws Exception {
+		Directory dir = new Directory(null, "shared", true, true);
+		AtomicInteger added = new AtomicInteger();
+		runOnAllThreads(() -> {
+			for (int i = 0; i < 2000; i++){
+				try {
+					new File(dir, "file" + i, "txt");
+					added.incrementAndGet();
+				} catch (IllegalArgumentException e) {
+					// another thread was first
+				}
+			}
+			return null;
+		});
+		assertEquals(2000, added.get());
+		assertEquals(2000, dir.getNbItems());
+		for (int i = 1; i < dir.getNbItems(); i++){
+			assertTrue(String.CASE_INSENSITIVE_ORDER.compare(
+					dir.getItemAt(i).getName(), dir.getItemAt(i + 1).getName()) < 0);
+		}
+	}
+
+	@Test
+	public void testReadsDuringWrites() throws Exception {
+		Directory dir = new Directory(null, "shared", true, true);
+		AtomicInteger writer = new AtomicInteger();
+		runOnAllThreads(() -> {
+			if (writer.getAndIncrement() == 0){
+				for (int i = 0; i < 20000; i++){
+					File file = new File(dir, "file" + i, "txt");
+					if (i % 2 == 0) dir.removeItem(file);
+				}
+			} else {
+				for (int i = 0; i < 20000; i++){
+					String name = "file" + (i % 1000);
+					if (dir.exists(name)){
+						try {
+							assertEquals(name, dir.getItem(name).getName());
+						} catch (IllegalArgumentException e) {
+							// removed in between
+						}
+					}
+					int nbItems = dir.getNbItems();
+					if (nbItems > 0) assertNotNull(dir.getItemAt(nbItems - nbItems / 2));
+				}
+			}
+			return null;
+		});
+		assertEquals(10000, dir.getNbItems());
+	}
+
+	@Test
+	public void testMovesInOppositeDirections_NoDeadlock() throws Exception {
+		Directory left = new Directory(null, "left", true, true);
+		Directory right = new Directory(null, "right", true, true);
+		ArrayList<File> files = new ArrayList<>();
+		for (int i = 0; i < 1000; i++){
+			files.add(new File(i % 2 == 0 ? left : right, "file" + i, "txt"));
+		}
+		AtomicInteger threadNumber = new AtomicInteger();
+		runOnAllThreads(() -> {
+			int offset = threadNumber.getAndIncrement();
+			for (int i = 0; i < 20000; i++){
+				File file = files.get((i * 7 + offset * 131) % files.size());
+				Directory target = (file.getDirectory() == left) ? right : left;
+				try {
+					target.addItem(file);
+				} catch (IllegalArgumentException e) {
+					// moved by another thread in between
+				}
+			}
+			return null;
+		});
+		assertEquals(files.size(), left.getNbItems() + right.getNbItems());
+		for (File file: files){
+			assertTrue(file.getDirectory().hasAsItem(file));
+			assertEquals(1, file.getDepth());
+		}
+	}
+
+	@Test
+	public void testDirectoryMoves_NoLoops() throws Exception {
+		Directory root = new Directory(null, "root", true, true);
+		Directory[] dirs = new Directory[16];
+		for (int i = 0; i < dirs.length; i++){
+			dirs[i] = new Directory(root, "dir" + i, true, true);
+		}
+		AtomicInteger threadNumber = new AtomicInteger();
+		runOnAllThreads(() -> {
+			int offset = threadNumber.getAndIncrement();
+			for (int i = 0; i < 5000; i++){
+				Directory moved = dirs[(i + offset) % dirs.length];
+				Directory target = dirs[(i * 3 + offset * 5) % dirs.length];
+				try {
+					target.addItem(moved);
+				} catch (IllegalArgumentException e) {
+					// would create a loop, or already there
+				}
+			}
+			return null;
+		});
+		for (Directory dir: dirs){
+			assertSame(root, dir.getRoot());
+			assertTrue(dir.isDirectOrIndirectSubDirectoryOf(root));
+			assertEquals(dir.getDirectory().getDepth() + 1, dir.getDepth());
+		}
+	}
+
+	@Test
+	public void testChangeName_ConcurrentWithLookups() throws Exception {
+		Directory dir = new Directory(null, "shared", true, true);
+		File renamed = new File(dir, "a", "txt");
+		AtomicInteger threadNumber = new AtomicInteger();
+		runOnAllThreads(() -> {
+			if (threadNumber.getAndIncrement() == 0){
+				for (int i = 0; i < 20000; i++){
+					renamed.changeName(i % 2 == 0 ? "b" : "a");
+				}
+			} else {
+				for (int i = 0; i < 20000; i++){
+					assertEquals(1, dir.getNbItems());
+					assertSame(renamed, dir.getItemAt(1));
+				}
+			}
+			return null;
+		});
+		assertSame(renamed, dir.getItem("a"));
+	}
+
+}
@@ -0,0 +1,145 @@
+package filesystem;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.*;
+
+/**
+ * A JUnit stress test class for files whose size is changed by many threads.
+ *
+ */
+public class ConcurrentFileTest {
+
+	private static final int THREADS = 8;
+
+	ExecutorService executor;
+
+	@Before
+	public void setUpFixture(){
+		executor = Executors.newFixedThreadPool(THREADS);
+	}
+
+	@After
+	public void tearDownFixture(){
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void testEnlargeAndShorten_NoLostUpdates() throws Exception {
+		File file = new File("log", "txt");
+		ArrayList<Future<?>> futures = new ArrayList<>();
+		for (int i = 0; i < THREADS; i++){
+			futures.add(executor.submit(() -> {
+				for (int j = 0; j < 100000; j++){
+					file.enlarge(3);
+					file.shorten(1);
+				}
+			}));
+		}
+		for (Future<?> future: futures) future.get(60, TimeUnit.SECONDS);
+		assertEquals(THREADS * 100000 * 2, file.getSize());
+		assertNotNull(file.getModificationTime());
+	}
+
+	@Test
+	public void testEnlarge_TotalsOfDirectories() throws Exception {
+		Directory root = new Directory(null, "root", true, true);
+		Directory logs = new Directory(root, "logs", true, true);
+		ArrayList<Future<?>> futures = new ArrayList<>();
+		for (int i = 0; i < THREADS; i++){
+			File file = new File(logs, "log" + i, "txt");
+			futures.add(executor.submit(() -> {
+				for (int j = 0; j < 100000; j++){
+					file.enlarge(2);
+					file.shorten(1);
+				}
+			}));
+		}
+		for (Future<?> future: futures) future.get(60, TimeUnit.SECONDS);
+		assertEquals(THREADS * 100000, logs.getTotalSize());
+		assertEquals(THREADS * 100000, root.getTotalSize());
+		assertEquals(THREADS + 1, root.getTotalNbItems());
+	}
+
+	@Test
+	public void testEnlarge_TotalsWhileDirectoriesMove() throws Exception {
+		Directory root = new Directory(null, "root", true, true);
+		Directory left = new Directory(root, "left", true, true);
+		Directory right = new Directory(root, "right", true, true);
+		Directory logs = new Directory(left, "logs", true, true);
+		ArrayList<Future<?>> futures = new ArrayList<>();
+		for (int i = 0; i < THREADS - 1; i++){
+			File file = new File(logs, "log" + i, "txt");
+			futures.add(executor.submit(() -> {
+				for (int j = 0; j < 20000; j++){
+					file.enlarge(2);
+					file.shorten(1);
+				}
+			}));
+		}
+		futures.add(executor.submit(() -> {
+			for (int j = 0; j < 2000; j++) ((j % 2 == 0) ? right : left).addItem(logs);
+		}));
+		for (Future<?> future: futures) future.get(60, TimeUnit.SECONDS);
+		assertEquals((THREADS - 1) * 20000, logs.getTotalSize());
+		assertEquals((THREADS - 1) * 20000, left.getTotalSize());
+		assertEquals(0, right.getTotalSize());
+		assertEquals((THREADS - 1) * 20000, root.getTotalSize());
+	}
+
+	@Test
+	public void testEnlarge_FileIndexUpToDate() throws Exception {
+		Directory root = new Directory(null, "root", true, true);
+		FileIndex index = root.enableFileIndex();
+		ArrayList<Future<?>> futures = new ArrayList<>();
+		for (int i = 0; i < THREADS; i++){
+			File file = new File(root, "log" + i, "txt");
+			int growth = i + 1;
+			futures.add(executor.submit(() -> {
+				for (int j = 0; j < 10000; j++){
+					file.enlarge(growth);
+					if (j % 1000 == 0) index.getFilesWithSizeBetween(0, Integer.MAX_VALUE);
+				}
+			}));
+		}
+		for (Future<?> future: futures) future.get(60, TimeUnit.SECONDS);
+		List<File> bySize = index.getFilesWithSizeBetween(0, Integer.MAX_VALUE);
+		assertEquals(THREADS, bySize.size());
+		for (int i = 0; i < THREADS; i++) assertEquals((i + 1) * 10000, bySize.get(i).getSize());
+		assertEquals(THREADS, index.getFilesModifiedBetween(Long.MIN_VALUE, Long.MAX_VALUE).size());
+	}
+
+	@Test
+	public void testEnlarge_NeverExceedsMaximumSize() throws Exception {
+		File file = new File("log", File.getMaximumSize() - 1000, true, "txt");
+		AtomicInteger rejected = new AtomicInteger();
+		ArrayList<Future<?>> futures = new ArrayList<>();
+		for (int i = 0; i < THREADS; i++){
+			futures.add(executor.submit(() -> {
+				for (int j = 0; j < 1000; j++){
+					try {
+						file.enlarge(1);
+					} catch (IllegalArgumentException e) {
+						rejected.incrementAndGet();
+					}
+				}
+			}));
+		}
+		for (Future<?> future: futures) future.get(60, TimeUnit.SECONDS);
+		assertEquals(File.getMaximumSize(), file.getSize());
+		assertEquals(THREADS * 1000 - 1000, rejected.get());
+	}
+
+	@Test (expected = IllegalArgumentException.class)
+	public void testShorten_BelowZero() {
+		new File("log", 10, true, "txt").shorten(11);
+	}
+
+}
@@ -0,0 +1,61 @@
+package filesystem;
+import be.kuleuven.cs.som.annotate.*;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * One page of the contents of a directory, as returned by Directory.list.
+ * The cursor of a page is the name of its last item; listing the items after
+ * that name gives the next page.
+ *
+ * @invar	A page with a next cursor is not empty.
+ * 			| !hasNext() || !getItems().isEmpty()
+ */
+@Immutable
+public final class ContentsPage {
+
+	/**
+	 * Initialise a new page with the given items and next cursor.
+	 */
+	ContentsPage(List<FilesystemItem> items, String nextCursor) {
+		this.items = Collections.unmodifiableList(items);
+		this.nextCursor = nextCursor;
+	}
+
+	/**
+	 * Variable referencing the items on this page.
+	 */
+	private final List<FilesystemItem> items;
+
+	/**
+	 * Variable registering the cursor of the next page, or null.
+	 */
+	private final String nextCursor;
+
+	/**
+	 * Return the items on this page, in the order of the contents of the directory.
+	 */
+	@Basic @Immutable
+	public List<FilesystemItem> getItems() {
+		return items;
+	}
+
+	/**
+	 * Return the cursor to pass to Directory.list for the next page, or null if the
+	 * directory had no more items when this page was listed.
+	 */
+	@Basic @Immutable
+	public String getNextCursor() {
+		return nextCursor;
+	}
+
+	/**
+	 * Check whether the directory had more items after this page when it was listed.
+	 *
+	 * @return	| result == (getNextCursor() != null)
+	 */
+	public boolean hasNext() {
+		return nextCursor != null;
+	}
+}
@@ -3,15 +3,26 @@ package filesystem;
 import be.kuleuven.cs.som.annotate.*;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Date;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 public class Directory extends FilesystemItem {
-	
-	private Directory parent;
-	private String itemName;
-	private boolean isWritable;
-	private final Date creationTime = new Date();
-	private Date modificationTime = null;
 
 	/**********************************************************
 	 * constructors
@@ -30,10 +41,38 @@ public class Directory extends FilesystemItem {
 	 * @effect	The directory is initialised as a FileSystemObject with
 	 * 			the given directory, name and writablilty.
 	 * 			| new FileSystemObject(dir, name, writable)
+	 * @effect	If the given directory is effective, the new directory is added to it.
+	 * 			| if (dir != null) then dir.addItem(this)
 	 */
 	
 	public Directory(Directory dir, String name, boolean writable) {
+		this(dir, name, writable, false);
+	}
+	
+	/**
+	 * Initialise a new directory with given parent, name, writability and
+	 * concurrency.
+	 * 
+	 * @param	dir
+	 * 			Parent of the new directory.
+	 * @param	name
+	 * 			Name of the new directory
+	 * @param	writable
+	 * 			Writability of the new directory.
+	 * @param	concurrent
+	 * 			Whether the new directory can be shared between threads.
+	 * @effect	The directory is initialised as a FileSystemObject with
+	 * 			the given directory, name and writablilty.
+	 * 			| new FileSystemObject(dir, name, writable)
+	 * @post	| new.isConcurrent() == concurrent
+	 * @effect	If the given directory is effective, the new directory is added to it.
+	 * 			| if (dir != null) then dir.addItem(this)
+	 */
+	public Directory(Directory dir, String name, boolean writable, boolean concurrent) {
 		super(dir, name, writable);
+		this.contentsLock = concurrent ? new ContentsLock() : null;
+		this.sharedTree = concurrent;
+		if (dir != null) dir.addItem(this);
 	}
 
 	public Directory(String name, boolean writable) {
@@ -64,6 +103,41 @@ public class Directory extends FilesystemItem {
 	
 	private ArrayList<FilesystemItem> contents = new ArrayList<>();
 	
+	/**
+	 * Index of the contents of this directory, keyed by the case-insensitive
+	 * name of each item. Kept in sync with contents, which stays sorted by name.
+	 */
+	private final HashMap<String, FilesystemItem> itemsByName = new HashMap<>();
+	
+	/**
+	 * Returns the key under which an item with the given name is indexed.
+	 * Every character is folded the way String.CASE_INSENSITIVE_ORDER compares
+	 * it, so that two names get the same key exactly if that order finds them
+	 * equal, whatever the default locale.
+	 * @param 	itemName
+	 * 			name to normalise
+	 * @return	the name with every character c replaced by
+	 * 			Character.toLowerCase(Character.toUpperCase(c))
+	 */
+	private static String getIndexKey(String itemName){
+		for (int i = 0; i < itemName.length(); i++) {
+			char c = itemName.charAt(i);
+			if (Character.toLowerCase(Character.toUpperCase(c)) != c) {
+				char[] folded = itemName.toCharArray();
+				for (int j = i; j < folded.length; j++)
+					folded[j] = Character.toLowerCase(Character.toUpperCase(folded[j]));
+				return new String(folded);
+			}
+		}
+		return itemName;
+	}
+	
+	/**
+	 * Order of the contents of this directory: by name, ignoring case.
+	 */
+	private static final Comparator<FilesystemItem> NAME_ORDER =
+			(first, second) -> String.CASE_INSENSITIVE_ORDER.compare(first.getName(), second.getName());
+	
 	/**********************************************************
 	 * content validity checking
 	 **********************************************************/
@@ -78,7 +152,10 @@ public class Directory extends FilesystemItem {
 	public boolean canBeAddedToDirectory(FilesystemItem item){
 		if (exists(item.getName())) return false;
 		
-		else if (item.getClass() == Directory.class && 
+		else if (item instanceof Directory && ((Directory) item).journal != null) // a journaled root stays a root
+			return false;
+		
+		else if (item instanceof Directory && 
 				(isDirectOrIndirectSubDirectoryOf((Directory) item) || item == this)) //protection against directory loop
 				return false;
 		
@@ -86,152 +163,1594 @@ public class Directory extends FilesystemItem {
 	}
 	
 	/**
-	 * Recursively checks if the given directory is one of the parents of
-	 * this directory
+	 * Checks if the given directory is one of the parents of this directory.
+	 * Only a directory that is higher up in the tree can be a parent, so the
+	 * depths are compared first and then exactly that many steps are taken upwards.
 	 * @param 	directory
 	 * 			directory to check for parenthood of this directory
 	 * @return	whether directory is parent of this directory
 	 */
 	public boolean isDirectOrIndirectSubDirectoryOf(Directory directory){
-		if(this.isRoot()) return false;
-		else {
-			Directory parent = getDirectory();
-			if(parent == directory) return true;
-			else return parent.isDirectOrIndirectSubDirectoryOf(directory);
+		if (directory == null || getDepth() <= directory.getDepth()) return false;
+		FilesystemItem ancestor = this;
+		for (int steps = getDepth() - directory.getDepth(); steps > 0; steps--){
+			ancestor = ancestor.getDirectory();
 		}
+		return ancestor == directory;
 	}
 	
 	/**********************************************************
 	 * Content manipulation
 	 **********************************************************/
 	
+	/**
+	 * Adds the given item to this directory, keeping the contents sorted by name.
+	 * If the item still resides in another directory, it is removed from there first.
+	 * @param 	item
+	 * 			item to add to this directory
+	 * @throws 	IllegalArgumentException
+	 * 			the item can not be added to this directory
+	 * 			| !canBeAddedToDirectory(item)
+	 * @throws 	NotWritableException
+	 * 			this directory, or the directory the item is moved out of, is not writable
+	 * 			| !isWritable()
+	 * @throws 	QuotaExceededException
+	 * 			adding the item would exceed the quota of this directory or of a directory above it
+	 */
 	public void addItem(FilesystemItem item) throws IllegalArgumentException, NotWritableException{
-		if(canBeAddedToDirectory(item)){
-			if (isWritable()){
-				this.contents.add(binarySearchForItem(item.getName()), item);
+		List<Journal> journals = Journal.lock(this, item);
+		try {
+			Journal targetJournal = Journal.of(this), sourceJournal = Journal.of(item);
+			String oldPath = (sourceJournal == null) ? null : item.getPath();
+			addItemUnjournaled(item);
+			Journal.recordAdd(this, item, targetJournal, sourceJournal, oldPath);
+		} finally {
+			Journal.unlock(journals);
+		}
+	}
+	
+	/**
+	 * Adds the given item to this directory. The journals of the trees involved must be locked.
+	 */
+	private void addItemUnjournaled(FilesystemItem item) throws IllegalArgumentException, NotWritableException{
+		List<Lock> structures = lockStructuresOf(item);
+		try {
+			Directory oldRoot = item.getRoot();
+			Directory source = lockForWritingWithSourceOf(item);
+			while (!isLockedStructure(source, structures)){
+				unlockForWriting(this, source);
+				unlockStructures(structures);
+				structures = lockStructuresOf(item);
+				oldRoot = item.getRoot();
+				source = lockForWritingWithSourceOf(item);
 			}
-			else throw new NotWritableException(this);
+			try {
+				if(canBeAddedToDirectory(item)){
+					if (isWritable()){
+						if (source != null) source.detachItem(item);
+						try {
+							reserveTotals(getTotalSizeOf(item), getTotalNbItemsOf(item));
+						} catch (QuotaExceededException e) {
+							if (source != null) source.attachItem(item);
+							throw e;
+						}
+						this.contents.add(binarySearchForItem(item.getName()), item);
+						this.itemsByName.put(getIndexKey(item.getName()), item);
+						item.setDirectory(this);
+						if (item instanceof Directory) ((Directory) item).dropRootCaches();
+						setModificationTime();
+					}
+					else throw new NotWritableException(this);
+				}
+				else throw new IllegalArgumentException("The given object is not valid content for this directory.");
+			} finally {
+				unlockForWriting(this, source);
+			}
+			moveFileIndexEntries(item, oldRoot);
+		} finally {
+			unlockStructures(structures);
 		}
-		else throw new IllegalArgumentException("The given object is not valid content for this directory.");
 	}
 	
+	/**
+	 * Removes the given item from this directory, making it a root item.
+	 * @param 	item
+	 * 			item to remove from this directory
+	 * @throws 	IllegalArgumentException
+	 * 			the item does not reside in this directory
+	 * 			| !hasAsItem(item)
+	 * @throws 	NotWritableException
+	 * 			this directory is not writable
+	 * 			| !isWritable()
+	 */
 	public void removeItem(FilesystemItem item) throws IllegalArgumentException, NotWritableException{
+		List<Journal> journals = Journal.lock(this);
+		try {
+			Journal journal = Journal.of(this);
+			String oldPath = (journal == null || item == null) ? null : item.getPath();
+			List<Lock> structures = lockStructuresOf(item);
+			try {
+				Directory oldRoot = getRoot();
+				lockForWriting();
+				try {
+					detachItem(item);
+				} finally {
+					unlockForWriting();
+				}
+				moveFileIndexEntries(item, oldRoot);
+			} finally {
+				unlockStructures(structures);
+			}
+			Journal.recordRemove(journal, oldPath);
+		} finally {
+			Journal.unlock(journals);
+		}
+	}
+	
+	/**
+	 * Puts the given item back into this directory after it was taken out by
+	 * detachItem, without checking anything. The write lock of this directory must be held.
+	 * @param 	item
+	 * 			item to put back into this directory
+	 */
+	private void attachItem(FilesystemItem item){
+		this.contents.add(binarySearchForItem(item.getName()), item);
+		this.itemsByName.put(getIndexKey(item.getName()), item);
+		item.setDirectory(this);
+		addToTotals(getTotalSizeOf(item), getTotalNbItemsOf(item));
+	}
+	
+	/**
+	 * Takes the given item out of this directory, without updating the depth and
+	 * root of the item. The write lock of this directory must be held.
+	 * @param 	item
+	 * 			item to remove from this directory
+	 * @throws 	IllegalArgumentException
+	 * 			the item does not reside in this directory
+	 * 			| !hasAsItem(item)
+	 * @throws 	NotWritableException
+	 * 			this directory is not writable
+	 * 			| !isWritable()
+	 */
+	private void detachItem(FilesystemItem item) throws IllegalArgumentException, NotWritableException{
 		if(hasAsItem(item)){
 			if(isWritable()){
-				this.contents.remove(item);
-				if(!this.isRoot()) this.makeRoot();
+				invalidatePathsOf(item);
+				this.contents.remove(binarySearchForItem(item.getName()));
+				this.itemsByName.remove(getIndexKey(item.getName()));
+				item.setDirectory(null);
+				addToTotals(-getTotalSizeOf(item), -getTotalNbItemsOf(item));
+				setModificationTime();
 			}
 			else throw new NotWritableException(this);
 		}
 		else throw new IllegalArgumentException();
 	}
 	
-	/**********************************************************
-	 * Indexing and item existence
-	 **********************************************************/
+	/**
+	 * Adds all given items to this directory at once. The whole batch is checked
+	 * before anything is changed, sorted once and merged into the contents in a
+	 * single pass, so adding n items costs O(n log(n)) instead of n insertions.
+	 * Items that still reside in another directory are removed from there first.
+	 * @param 	items
+	 * 			items to add to this directory
+	 * @throws 	IllegalArgumentException
+	 * 			one of the items can not be added to this directory, or two of the
+	 * 			items have the same name
+	 * 			| for some item in items: !canBeAddedToDirectory(item)
+	 * @throws 	NotWritableException
+	 * 			this directory, or a directory one of the items is moved out of,
+	 * 			is not writable
+	 * 			| !isWritable()
+	 * @throws 	QuotaExceededException
+	 * 			adding the items would exceed the quota of this directory or of a directory above it
+	 */
+	public void addItems(Collection<? extends FilesystemItem> items) throws IllegalArgumentException, NotWritableException{
+		ArrayList<FilesystemItem> batch = new ArrayList<>(items);
+		if (batch.isEmpty()) return;
+		for (FilesystemItem item: batch){
+			if (item == null)
+				throw new IllegalArgumentException("The given object is not valid content for this directory.");
+		}
+		List<Journal> journals = Journal.lock(this, batch);
+		try {
+			Journal targetJournal = Journal.of(this);
+			ArrayList<Journal> sourceJournals = new ArrayList<>(batch.size());
+			ArrayList<String> oldPaths = new ArrayList<>(batch.size());
+			for (FilesystemItem item: batch){
+				Journal sourceJournal = Journal.of(item);
+				sourceJournals.add(sourceJournal);
+				oldPaths.add((sourceJournal == null) ? null : item.getPath());
+			}
+			List<Lock> structures = lockStructuresOf(batch);
+			try {
+				IdentityHashMap<FilesystemItem, Directory> oldRoots = hasFileIndexFor(batch) ? new IdentityHashMap<>() : null;
+				if (oldRoots != null) for (FilesystemItem item: batch) oldRoots.put(item, item.getRoot());
+				ArrayList<Directory> locked = lockForWritingWithSourcesOf(batch);
+				while (!isLockedStructure(locked, structures)){
+					for (int i = locked.size() - 1; i >= 0; i--) locked.get(i).unlockForWriting();
+					unlockStructures(structures);
+					structures = lockStructuresOf(batch);
+					if (oldRoots != null) for (FilesystemItem item: batch) oldRoots.put(item, item.getRoot());
+					locked = lockForWritingWithSourcesOf(batch);
+				}
+				try {
+					mergeItems(new ArrayList<>(batch));
+				} finally {
+					for (int i = locked.size() - 1; i >= 0; i--) locked.get(i).unlockForWriting();
+				}
+				if (oldRoots != null){
+					for (FilesystemItem item: batch) moveFileIndexEntries(item, oldRoots.get(item));
+				}
+			} finally {
+				unlockStructures(structures);
+			}
+			if (!journals.isEmpty()){
+				for (int i = 0; i < batch.size(); i++){
+					Journal.recordAdd(this, batch.get(i), targetJournal, sourceJournals.get(i), oldPaths.get(i));
+				}
+			}
+		} finally {
+			Journal.unlock(journals);
+		}
+	}
 	
-	public FilesystemItem getItemAt(int index) throws IndexOutOfBoundsException{
-		if (index > 0 && index <= this.contents.size()){
-			return this.contents.get(index);
-		} else {
-			throw new IndexOutOfBoundsException();
+	/**
+	 * Checks the given batch and merges it into the contents of this directory.
+	 * The batch is sorted by name in place. The write locks of this directory and
+	 * of the directories the items are moved out of must be held.
+	 * @param 	batch
+	 * 			effective items to add to this directory
+	 */
+	private void mergeItems(ArrayList<FilesystemItem> batch) throws IllegalArgumentException, NotWritableException{
+		if (!isWritable()) throw new NotWritableException(this);
+		LinkedHashMap<Directory, ArrayList<FilesystemItem>> moved = new LinkedHashMap<>();
+		for (FilesystemItem item: batch){
+			if (!canBeAddedToDirectory(item))
+				throw new IllegalArgumentException("The given object is not valid content for this directory.");
+			if (!item.isRoot()){
+				if (!item.getDirectory().isWritable()) throw new NotWritableException(item.getDirectory());
+				moved.computeIfAbsent(item.getDirectory(), dir -> new ArrayList<>()).add(item);
+			}
 		}
+		batch.sort(NAME_ORDER);
+		for (int i = 1; i < batch.size(); i++){
+			if (NAME_ORDER.compare(batch.get(i - 1), batch.get(i)) == 0)
+				throw new IllegalArgumentException("The given objects do not have distinct names.");
+		}
+		long sizeDelta = 0, nbItemsDelta = 0;
+		for (FilesystemItem item: batch){
+			sizeDelta += getTotalSizeOf(item);
+			nbItemsDelta += getTotalNbItemsOf(item);
+		}
+		for (Directory dir: moved.keySet()){
+			dir.detachItems(moved.get(dir));
+		}
+		try {
+			reserveTotals(sizeDelta, nbItemsDelta);
+		} catch (QuotaExceededException e) {
+			for (Directory dir: moved.keySet()){
+				for (FilesystemItem item: moved.get(dir)) dir.attachItem(item);
+			}
+			throw e;
+		}
+		ArrayList<FilesystemItem> merged = new ArrayList<>(this.contents.size() + batch.size());
+		int i = 0, j = 0;
+		while (i < this.contents.size() && j < batch.size()){
+			if (NAME_ORDER.compare(this.contents.get(i), batch.get(j)) < 0){
+				merged.add(this.contents.get(i++));
+			} else {
+				merged.add(batch.get(j++));
+			}
+		}
+		merged.addAll(this.contents.subList(i, this.contents.size()));
+		merged.addAll(batch.subList(j, batch.size()));
+		this.contents = merged;
+		for (FilesystemItem item: batch){
+			this.itemsByName.put(getIndexKey(item.getName()), item);
+			item.setDirectory(this);
+			if (item instanceof Directory) ((Directory) item).dropRootCaches();
+		}
+		setModificationTime();
 	}
 	
-	public boolean exists(String itemName){
-		for(FilesystemItem item: this.contents){
-			if(item.getName().toLowerCase().equals(itemName.toLowerCase())){
-				return true;
+	/**
+	 * Removes all given items from this directory at once, making them root items.
+	 * The whole batch is checked before anything is changed, and the contents are
+	 * compacted in a single pass.
+	 * @param 	items
+	 * 			items to remove from this directory
+	 * @throws 	IllegalArgumentException
+	 * 			one of the items does not reside in this directory
+	 * 			| for some item in items: !hasAsItem(item)
+	 * @throws 	NotWritableException
+	 * 			this directory is not writable
+	 * 			| !isWritable()
+	 */
+	public void removeItems(Collection<? extends FilesystemItem> items) throws IllegalArgumentException, NotWritableException{
+		ArrayList<FilesystemItem> batch = new ArrayList<>(items);
+		List<Journal> journals = Journal.lock(this);
+		try {
+			Journal journal = Journal.of(this);
+			LinkedHashSet<String> oldPaths = new LinkedHashSet<>();
+			if (journal != null){
+				for (FilesystemItem item: batch){
+					if (item != null) oldPaths.add(item.getPath());
+				}
+			}
+			List<Lock> structures = lockStructuresOf(batch);
+			try {
+				Directory oldRoot = getRoot();
+				lockForWriting();
+				try {
+					detachItems(batch);
+				} finally {
+					unlockForWriting();
+				}
+				for (FilesystemItem item: batch){
+					moveFileIndexEntries(item, oldRoot);
+				}
+			} finally {
+				unlockStructures(structures);
 			}
+			for (String oldPath: oldPaths) Journal.recordRemove(journal, oldPath);
+		} finally {
+			Journal.unlock(journals);
+		}
+	}
+	
+	/**
+	 * Takes all given items out of this directory, without updating their depth
+	 * and root. The write lock of this directory must be held.
+	 * @param 	items
+	 * 			items to remove from this directory
+	 */
+	private void detachItems(Collection<? extends FilesystemItem> items) throws IllegalArgumentException, NotWritableException{
+		if (!isWritable()) throw new NotWritableException(this);
+		IdentityHashMap<FilesystemItem, Boolean> removed = new IdentityHashMap<>();
+		for (FilesystemItem item: items){
+			if (!hasAsItem(item)) throw new IllegalArgumentException();
+			removed.put(item, Boolean.TRUE);
+		}
+		if (removed.isEmpty()) return;
+		for (FilesystemItem item: removed.keySet()){
+			invalidatePathsOf(item);
+		}
+		this.contents.removeIf(removed::containsKey);
+		long sizeDelta = 0, nbItemsDelta = 0;
+		for (FilesystemItem item: removed.keySet()){
+			this.itemsByName.remove(getIndexKey(item.getName()));
+			item.setDirectory(null);
+			sizeDelta -= getTotalSizeOf(item);
+			nbItemsDelta -= getTotalNbItemsOf(item);
+		}
+		addToTotals(sizeDelta, nbItemsDelta);
+		setModificationTime();
+	}
+	
+	/**
+	 * Moves the given item to its new place in this directory after it was renamed,
+	 * and indexes it under its new name. The write lock of this directory must be held.
+	 * @param 	item
+	 * 			item of this directory that was renamed
+	 * @param 	oldName
+	 * 			the name of the item before it was renamed
+	 * @param 	oldIndex
+	 * 			the index of the item before it was renamed, as given by getIndexOf
+	 */
+	void updateItemName(FilesystemItem item, String oldName, int oldIndex){
+		this.itemsByName.remove(getIndexKey(oldName));
+		this.contents.remove(oldIndex - 1);
+		this.contents.add(binarySearchForItem(item.getName()), item);
+		this.itemsByName.put(getIndexKey(item.getName()), item);
+	}
+	
+	/**
+	 * Returns whether the tree of this directory, or the tree of one of the given
+	 * items, has a file index, so that moving the items may have to update it.
+	 * @param 	items
+	 * 			effective items that are moved into this directory
+	 */
+	private boolean hasFileIndexFor(Collection<? extends FilesystemItem> items){
+		if (getRoot().fileIndex != null) return true;
+		for (FilesystemItem item: items){
+			Directory root = item.getRoot();
+			if (root != null && root.fileIndex != null) return true;
 		}
 		return false;
 	}
 	
-	public int getNbItems(){
-		return contents.size();
+	/**
+	 * Moves the files of the given item, and of all items below it, from the file
+	 * index of the tree it left to the file index of the tree it is in now. The
+	 * subtree is only walked if one of those trees has a file index.
+	 * @param 	item
+	 * 			item that was moved
+	 * @param 	oldRoot
+	 * 			the root of the tree of the item before it was moved, possibly null
+	 */
+	private static void moveFileIndexEntries(FilesystemItem item, Directory oldRoot){
+		Directory newRoot = item.getRoot();
+		if (newRoot == oldRoot) return;
+		FileIndex oldIndex = (oldRoot == null) ? null : oldRoot.fileIndex;
+		FileIndex newIndex = (newRoot == null) ? null : newRoot.fileIndex;
+		if (oldIndex == null && newIndex == null) return;
+		Consumer<FilesystemItem> move = moved -> {
+			if (moved instanceof File){
+				if (oldIndex != null) oldIndex.remove((File) moved);
+				if (newIndex != null) newIndex.add((File) moved);
+			}
+		};
+		move.accept(item);
+		if (item instanceof Directory) ((Directory) item).walk(move);
 	}
 	
 	/**
-	 * Searches for an item in the directory with the given name using
-	 * the binarySearchForItem method.
-	 * @param 	itemName
-	 * 			name of the required item
-	 * @return	the required item
+	 * Adds all items of this directory to the given collection, as they are at
+	 * one moment in time.
+	 * @param 	target
+	 * 			collection to add the items to
+	 */
+	void addContentsTo(Collection<? super FilesystemItem> target){
+		lockForReading();
+		try {
+			target.addAll(this.contents);
+		} finally {
+			unlockForReading();
+		}
+	}
+
+	/**
+	 * Gives this directory the given items as contents, while a tree is loaded from
+	 * a snapshot. The items must already be placed in this directory by restorePosition,
+	 * and their own contents must be complete, so the totals of this directory can be
+	 * computed from them. The items are known to be sorted, so they are only checked
+	 * against their neighbours instead of being inserted one by one.
+	 * @param 	items
+	 * 			the items of this directory, sorted by name
 	 * @throws 	IllegalArgumentException
-	 * 			if no item exists with the given name within this directory, this error is thrown.
+	 * 			the items are not sorted by name, or two items have the same name
+	 */
+	void restoreContents(ArrayList<FilesystemItem> items) throws IllegalArgumentException{
+		checkSorted(items);
+		long size = 0, nbItems = 0;
+		for (FilesystemItem item: items){
+			size += getTotalSizeOf(item);
+			nbItems += getTotalNbItemsOf(item);
+		}
+		lockForWriting();
+		try {
+			setContents(items);
+			restoreTotals(size, nbItems);
+		} finally {
+			unlockForWriting();
+		}
+	}
+
+	/**
+	 * Adds the given root item to this directory while a journal is replayed, without
+	 * checking the writability and the quotas of this directory and of the directories
+	 * above it. The item was journaled with the writability and quotas it has now, so
+	 * it may be read-only or over its quota before its own contents are replayed.
+	 * @param 	item
+	 * 			root item to add to this directory
+	 * @throws 	IllegalArgumentException
+	 * 			the item is not a root, or it can not be added to this directory
+	 * 			| !item.isRoot() || !canBeAddedToDirectory(item)
 	 */
+	void restoreItem(FilesystemItem item) throws IllegalArgumentException{
+		lockForWriting();
+		try {
+			if (!item.isRoot() || !canBeAddedToDirectory(item))
+				throw new IllegalArgumentException("The given object is not valid content for this directory.");
+			attachItem(item);
+		} finally {
+			unlockForWriting();
+		}
+	}
 	
-	public FilesystemItem getItem(String itemName) throws IllegalArgumentException{
-		if (!exists(itemName)){
-			throw new IllegalArgumentException("No item exists in this directory with the given name!");
+	/**
+	 * Sets the totals of this directory to the given values, as they were saved in a snapshot.
+	 * @post	| new.getTotalSize() == size && new.getTotalNbItems() == nbItems
+	 */
+	void restoreTotals(long size, long nbItems){
+		this.totalSize = size;
+		this.totalNbItems = nbItems;
+	}
+
+	/**
+	 * Checks that the given items are sorted by name, without two items with the same name.
+	 * @throws 	IllegalArgumentException
+	 * 			the items are not sorted by name, or two items have the same name
+	 */
+	private static void checkSorted(ArrayList<FilesystemItem> items) throws IllegalArgumentException{
+		for (int i = 1; i < items.size(); i++){
+			if (NAME_ORDER.compare(items.get(i - 1), items.get(i)) >= 0)
+				throw new IllegalArgumentException("The contents of a directory are not sorted by name.");
 		}
-		else{
-			return this.contents.get(binarySearchForItem(itemName));
+	}
+
+	/**
+	 * Replaces the contents of this directory by the given sorted items, and indexes them.
+	 */
+	private void setContents(ArrayList<FilesystemItem> items){
+		this.contents = items;
+		this.itemsByName.clear();
+		for (FilesystemItem item: items) this.itemsByName.put(getIndexKey(item.getName()), item);
+	}
+
+	/**
+	 * A source of the contents of a directory that are only read when they are first needed.
+	 */
+	interface LazyContents {
+
+		/**
+		 * Returns the items of the given directory, sorted by name and already placed
+		 * in that directory by restorePosition.
+		 */
+		ArrayList<FilesystemItem> load(Directory dir);
+	}
+
+	/**
+	 * The source of the contents of this directory if they were not read yet, or null.
+	 */
+	private volatile LazyContents lazyContents = null;
+
+	/**
+	 * Lets the contents of this directory be read from the given source when they
+	 * are first needed. This directory must not have any items yet.
+	 */
+	void setLazyContents(LazyContents source){
+		this.lazyContents = source;
+	}
+
+	/**
+	 * Returns whether the contents of this directory have been read.
+	 */
+	@Model
+	boolean hasLoadedContents(){
+		return lazyContents == null;
+	}
+
+	/**
+	 * Reads the contents of this directory from their source. Every access to the
+	 * contents takes one of the locks of this directory first, so that is where this
+	 * is done.
+	 */
+	private void loadLazyContents(){
+		synchronized (this){
+			LazyContents source = lazyContents;
+			if (source == null) return;
+			ArrayList<FilesystemItem> items = source.load(this);
+			checkSorted(items);
+			setContents(items);
+			lazyContents = null;
+		}
+	}
+
+	/**********************************************************
+	 * Traversal
+	 **********************************************************/
+
+	/**
+	 * Gives every item below this directory to the given visitor, on the current
+	 * thread, in pre-order: every directory before its contents, and the contents
+	 * of a directory in the order of their names. This directory itself is not visited.
+	 * Every directory is read as it is at the moment it is reached.
+	 * @param 	visitor
+	 * 			the action to perform for every item
+	 */
+	public void walk(Consumer<? super FilesystemItem> visitor){
+		Traversal.walk(Traversal.getContentsOf(this), visitor);
+	}
+
+	/**
+	 * Gives every item below this directory to the given visitor, using the threads
+	 * of the given pool. Sibling subdirectories are visited by tasks of their own, and
+	 * large directories are split over several tasks, up to a fixed depth of nested
+	 * tasks; deeper subtrees are walked on the thread that reaches them, so chains of
+	 * any depth never overflow the stack. Items are visited in no particular
+	 * order, so the visitor must be safe to use from several threads at once.
+	 * @param 	visitor
+	 * 			the action to perform for every item
+	 * @param 	pool
+	 * 			the pool whose threads visit the items
+	 */
+	public void walk(Consumer<? super FilesystemItem> visitor, ForkJoinPool pool){
+		pool.invoke(new Traversal.WalkTask(Traversal.getContentsOf(this), visitor));
+	}
+
+	/**
+	 * Returns all items below this directory that satisfy the given condition, in the
+	 * order in which walk(Consumer) visits them.
+	 * @param 	condition
+	 * 			the condition the items must satisfy
+	 * @return	| for each item in result: condition.test(item)
+	 */
+	public List<FilesystemItem> find(Predicate<? super FilesystemItem> condition){
+		ArrayList<FilesystemItem> found = new ArrayList<>();
+		walk(item -> {
+			if (condition.test(item)) found.add(item);
+		});
+		return found;
+	}
+
+	/**
+	 * Returns all items below this directory that satisfy the given condition, in no
+	 * particular order. The condition is tested by the threads of the given pool.
+	 * @param 	condition
+	 * 			the condition the items must satisfy
+	 * @param 	pool
+	 * 			the pool whose threads test the items
+	 * @return	| for each item in result: condition.test(item)
+	 */
+	public List<FilesystemItem> find(Predicate<? super FilesystemItem> condition, ForkJoinPool pool){
+		ConcurrentLinkedQueue<FilesystemItem> found = new ConcurrentLinkedQueue<>();
+		walk(item -> {
+			if (condition.test(item)) found.add(item);
+		}, pool);
+		return new ArrayList<>(found);
+	}
+
+	/**
+	 * Returns a sequential stream of all items below this directory, in the order
+	 * of walk(Consumer). Directories are read lazily, as the stream reaches them.
+	 */
+	public Stream<FilesystemItem> stream(){
+		return StreamSupport.stream(new Traversal.TreeSpliterator(Traversal.getContentsOf(this)), false);
+	}
+
+	/**
+	 * Returns a parallel stream of all items below this directory. The stream is split
+	 * by handing off whole subtrees, and runs in the pool of the terminal operation.
+	 */
+	public Stream<FilesystemItem> parallelStream(){
+		return StreamSupport.stream(new Traversal.TreeSpliterator(Traversal.getContentsOf(this)), true);
+	}
+
+	/**********************************************************
+	 * Path resolution
+	 **********************************************************/
+	
+	/**
+	 * Forgets the path cache and the file index of this directory, after it was
+	 * added to another directory and so is no longer a root.
+	 */
+	private void dropRootCaches(){
+		pathCache = null;
+		fileIndex = null;
+	}
+	
+	/**
+	 * Cache of resolved paths, only used while this directory is a root.
+	 * Created on the first resolution.
+	 */
+	private volatile PathCache pathCache = null;
+	
+	/**
+	 * Returns the item at the given path. A path starting with a slash is resolved
+	 * from the root of this directory, any other path from this directory itself.
+	 * Names are compared ignoring case, and empty names are skipped. Resolved paths
+	 * are remembered in the path cache of the root.
+	 * @param 	path
+	 * 			the path of the required item, for example "/a/b/c.txt"
+	 * @return	the item at the given path
+	 * 			| result.getPath().equalsIgnoreCase(normalised path)
+	 * @throws 	IllegalArgumentException
+	 * 			no item exists at the given path
+	 */
+	public FilesystemItem resolve(String path) throws IllegalArgumentException{
+		if (path == null) throw new IllegalArgumentException("No path given.");
+		ArrayList<String> names = new ArrayList<>();
+		if (!path.startsWith("/")) addNamesOfPath(getPath(), names);
+		addNamesOfPath(path, names);
+		StringBuilder normalised = new StringBuilder();
+		for (String name: names) normalised.append('/').append(name);
+		String key = (names.isEmpty()) ? "/" : getIndexKey(normalised.toString());
+		Directory root = getRoot();
+		PathCache cache = root.getPathCache();
+		FilesystemItem cached = cache.get(key);
+		if (cached != null) return cached;
+		long version = cache.getVersion();
+		FilesystemItem item = root;
+		for (String name: names){
+			if (!(item instanceof Directory))
+				throw new IllegalArgumentException("No item exists at the given path!");
+			item = ((Directory) item).getItem(name);
 		}
+		cache.put(key, item, version);
+		return item;
 	}
 	
 	/**
-	 * Implements the binary search algorithm (O(log(n)) to determine the index
-	 * of an element in an ArrayList
-	 * @param 	itemName
-	 * 			name of the item for which the index is required
-	 * @return	the index of the item for which the name was given
+	 * Adds the non-empty names in the given path to the given list.
 	 */
+	private static void addNamesOfPath(String path, ArrayList<String> names){
+		int start = 0;
+		while (start < path.length()){
+			int end = path.indexOf('/', start);
+			if (end < 0) end = path.length();
+			if (end > start) names.add(path.substring(start, end));
+			start = end + 1;
+		}
+	}
 	
-	private int binarySearchForItem(String itemName){
-		itemName = itemName.toLowerCase();
-		int lower = 0;
-		int upper = this.contents.size();
-		int middle;
-		while (upper != lower){
-			int comparedCharIndex = 0;
-			middle = Math.floorDiv(upper + lower, 2);
-			
-			String middleItemName = this.contents.get(middle).getName().toLowerCase();
-			
-			while(true){
-				if(middleItemName.charAt(comparedCharIndex) > itemName.charAt(comparedCharIndex)){
-					upper = middle;
-					break;
-				} else if (middleItemName.charAt(comparedCharIndex) > itemName.charAt(comparedCharIndex)) {
-					lower = middle++;
-					break;
-				} else {
-					if(comparedCharIndex == itemName.length() - 1){
-						upper = middle;
-						break;
-					} else {
-						comparedCharIndex++;
-					}
-				}
+	/**
+	 * Returns the path cache of this directory, creating it if needed.
+	 */
+	public PathCache getPathCache(){
+		PathCache cache = pathCache;
+		if (cache == null){
+			synchronized (this){
+				if (pathCache == null) pathCache = new PathCache(PathCache.DEFAULT_CAPACITY);
+				cache = pathCache;
 			}
 		}
-		return lower;
+		return cache;
 	}
 	
 	/**
-	 * Returns whether the given item exists within the directory or not
+	 * Removes the path of the given item, and all paths below it, from the path
+	 * cache of the root of this directory. Called before the item is renamed,
+	 * moved or removed.
 	 * @param 	item
-	 * 			item to check existance of
-	 * @return	existance of the item
+	 * 			item whose path is about to change
 	 */
-	public boolean hasAsItem(FilesystemItem item){
-		return contents.contains(item);
+	void invalidatePathsOf(FilesystemItem item){
+		PathCache cache = getRoot().pathCache;
+		if (cache != null) cache.invalidate(getIndexKey(item.getPath()));
 	}
-	
+
+	/**********************************************************
+	 * File index
+	 **********************************************************/
+
 	/**
-	 * Returns the index of the given item within the directory if it exists
-	 * @param 	item
-	 * 			item to get the index of
-	 * @return	index of the given item
-	 * @throws 	IllegalArgumentException
-	 * 			throws this error when item does not exist within this directory
+	 * Index of the files in the tree of this directory, only used while this
+	 * directory is a root. Null as long as no index is enabled.
 	 */
-	public int getIndexOf(FilesystemItem item) throws IllegalArgumentException{
-		if (hasAsItem(item)){
-			return contents.indexOf(item);
-		} else {
-			throw new IllegalArgumentException("No given object exists within this directory");
+	private volatile FileIndex fileIndex = null;
+
+	/**
+	 * Returns the file index of the tree of this directory, or null if it has none.
+	 */
+	public FileIndex getFileIndex(){
+		return getRoot().fileIndex;
+	}
+
+	/**
+	 * Enables the file index of the tree of this directory, filling it with all
+	 * files in the tree. The index is kept by the root of the tree, and is dropped
+	 * when that root is added to another directory.
+	 * @return	the file index of the tree of this directory
+	 * 			| result.getOwner() == getRoot() && result.getNbFiles() == number of files in the tree
+	 */
+	public FileIndex enableFileIndex(){
+		Directory root = getRoot();
+		synchronized (root){
+			if (root.fileIndex == null){
+				FileIndex index = new FileIndex(root);
+				root.fileIndex = index;
+				root.walk(item -> {
+					if (item instanceof File) index.add((File) item);
+				});
+			}
+			return root.fileIndex;
+		}
+	}
+
+	/**
+	 * Disables the file index of the tree of this directory, if it has one.
+	 * @post	| getFileIndex() == null
+	 */
+	public void disableFileIndex(){
+		getRoot().fileIndex = null;
+	}
+
+	/**********************************************************
+	 * Journal
+	 **********************************************************/
+
+	/**
+	 * Journal of the changes to the tree of this directory, only used while this
+	 * directory is a root. Null as long as the tree has no journal.
+	 */
+	private volatile Journal journal = null;
+
+	/**
+	 * Returns the journal of the tree of this directory, or null if it has none.
+	 */
+	public Journal getJournal(){
+		return getRoot().journal;
+	}
+
+	/**
+	 * Sets the journal of this root directory.
+	 */
+	void setJournal(Journal journal){
+		this.journal = journal;
+	}
+
+	/**********************************************************
+	 * Totals
+	 **********************************************************/
+	
+	/**
+	 * Variable registering the sum of the sizes of all files anywhere below this directory.
+	 */
+	private volatile long totalSize = 0;
+	
+	/**
+	 * Variable registering the number of items anywhere below this directory.
+	 */
+	private volatile long totalNbItems = 0;
+	
+	private static final AtomicLongFieldUpdater<Directory> totalSizeUpdater =
+			AtomicLongFieldUpdater.newUpdater(Directory.class, "totalSize");
+	
+	private static final AtomicLongFieldUpdater<Directory> totalNbItemsUpdater =
+			AtomicLongFieldUpdater.newUpdater(Directory.class, "totalNbItems");
+	
+	/**
+	 * Returns the sum of the sizes of all files anywhere below this directory.
+	 * The total is kept up to date by every change below this directory, so
+	 * no subtree is walked here.
+	 */
+	@Basic
+	public long getTotalSize(){
+		return totalSize;
+	}
+	
+	/**
+	 * Returns the number of files and directories anywhere below this directory.
+	 */
+	@Basic
+	public long getTotalNbItems(){
+		return totalNbItems;
+	}
+	
+	/**
+	 * Adds the given deltas to the totals of this directory and of every directory
+	 * above it, without checking any quota.
+	 * @param 	sizeDelta
+	 * 			number of bytes added below this directory
+	 * @param 	nbItemsDelta
+	 * 			number of items added below this directory
+	 */
+	void addToTotals(long sizeDelta, long nbItemsDelta){
+		for (Directory dir = this; dir != null; dir = dir.getDirectory()){
+			if (sizeDelta != 0) totalSizeUpdater.addAndGet(dir, sizeDelta);
+			if (nbItemsDelta != 0) totalNbItemsUpdater.addAndGet(dir, nbItemsDelta);
+		}
+	}
+	
+	/**
+	 * Adds the given non-negative deltas to the totals of this directory and of every
+	 * directory above it, if no quota of those directories is exceeded by doing so.
+	 * Each total is only raised while it stays within its quota, so concurrent
+	 * additions can never exceed a quota together. This costs O(depth).
+	 * @param 	sizeDelta
+	 * 			number of bytes to add below this directory
+	 * @param 	nbItemsDelta
+	 * 			number of items to add below this directory
+	 * @throws 	QuotaExceededException
+	 * 			a quota of this directory or of a directory above it would be exceeded;
+	 * 			no total is changed
+	 */
+	void reserveTotals(long sizeDelta, long nbItemsDelta) throws QuotaExceededException{
+		for (Directory dir = this; dir != null; dir = dir.getDirectory()){
+			if (!dir.tryAddToOwnTotals(sizeDelta, nbItemsDelta)){
+				for (Directory undo = this; undo != dir; undo = undo.getDirectory()){
+					totalSizeUpdater.addAndGet(undo, -sizeDelta);
+					totalNbItemsUpdater.addAndGet(undo, -nbItemsDelta);
+				}
+				throw new QuotaExceededException(dir);
+			}
+		}
+	}
+	
+	/**
+	 * Adds the given deltas to the totals of this directory only, if both stay within their quota.
+	 * @return	whether the deltas were added
+	 */
+	private boolean tryAddToOwnTotals(long sizeDelta, long nbItemsDelta){
+		if (!tryAdd(totalSizeUpdater, sizeDelta, byteQuota)) return false;
+		if (!tryAdd(totalNbItemsUpdater, nbItemsDelta, itemQuota)){
+			totalSizeUpdater.addAndGet(this, -sizeDelta);
+			return false;
+		}
+		return true;
+	}
+	
+	private boolean tryAdd(AtomicLongFieldUpdater<Directory> total, long delta, long quota){
+		if (quota == NO_QUOTA){
+			if (delta != 0) total.addAndGet(this, delta);
+			return true;
+		}
+		long current;
+		do {
+			current = total.get(this);
+			if (current + delta > quota) return false;
+		} while (!total.compareAndSet(this, current, current + delta));
+		return true;
+	}
+	
+	/**********************************************************
+	 * Quotas
+	 **********************************************************/
+	
+	/**
+	 * Value of a quota that does not limit anything.
+	 */
+	public static final long NO_QUOTA = Long.MAX_VALUE;
+	
+	/**
+	 * Variable registering the maximum total size of all files below this directory.
+	 */
+	private volatile long byteQuota = NO_QUOTA;
+	
+	/**
+	 * Variable registering the maximum number of items below this directory.
+	 */
+	private volatile long itemQuota = NO_QUOTA;
+	
+	/**
+	 * Returns the maximum total size of all files below this directory, NO_QUOTA if there is none.
+	 */
+	@Basic
+	public long getByteQuota(){
+		return byteQuota;
+	}
+	
+	/**
+	 * Returns the maximum number of items below this directory, NO_QUOTA if there is none.
+	 */
+	@Basic
+	public long getItemQuota(){
+		return itemQuota;
+	}
+	
+	/**
+	 * Checks whether the given value is a valid quota.
+	 * @param 	quota
+	 * 			the quota to check
+	 * @return	| result == (quota >= 0)
+	 */
+	public static boolean isValidQuota(long quota){
+		return quota >= 0;
+	}
+	
+	/**
+	 * Limits the total size of all files below this directory. A quota lower than the
+	 * current total size only rejects further growth.
+	 * @param 	quota
+	 * 			the new byte quota, NO_QUOTA to remove it
+	 * @post	| new.getByteQuota() == quota
+	 * @throws 	IllegalArgumentException
+	 * 			| !isValidQuota(quota)
+	 */
+	public void setByteQuota(long quota) throws IllegalArgumentException{
+		if (!isValidQuota(quota)) throw new IllegalArgumentException("Invalid quota.");
+		List<Journal> journals = Journal.lock(this);
+		try {
+			this.byteQuota = quota;
+			Journal.recordQuotas(Journal.of(this), this);
+		} finally {
+			Journal.unlock(journals);
+		}
+	}
+	
+	/**
+	 * Limits the number of items below this directory. A quota lower than the
+	 * current number of items only rejects further additions.
+	 * @param 	quota
+	 * 			the new item quota, NO_QUOTA to remove it
+	 * @post	| new.getItemQuota() == quota
+	 * @throws 	IllegalArgumentException
+	 * 			| !isValidQuota(quota)
+	 */
+	public void setItemQuota(long quota) throws IllegalArgumentException{
+		if (!isValidQuota(quota)) throw new IllegalArgumentException("Invalid quota.");
+		List<Journal> journals = Journal.lock(this);
+		try {
+			this.itemQuota = quota;
+			Journal.recordQuotas(Journal.of(this), this);
+		} finally {
+			Journal.unlock(journals);
+		}
+	}
+	
+	/**
+	 * Returns the number of bytes the given item accounts for in the totals of its directory.
+	 */
+	private static long getTotalSizeOf(FilesystemItem item){
+		return (item instanceof Directory) ? ((Directory) item).getTotalSize() : ((File) item).getSize();
+	}
+	
+	/**
+	 * Returns the number of items the given item accounts for in the totals of its directory.
+	 */
+	private static long getTotalNbItemsOf(FilesystemItem item){
+		return (item instanceof Directory) ? 1 + ((Directory) item).getTotalNbItems() : 1;
+	}
+	
+	/**********************************************************
+	 * Concurrency
+	 **********************************************************/
+	
+	/**
+	 * Lock guarding the contents of a concurrent directory, together with its place
+	 * in the global order in which directory locks are taken.
+	 */
+	private static final class ContentsLock extends ReentrantReadWriteLock {
+		
+		private static final long serialVersionUID = 1L;
+		
+		private static final AtomicLong nextOrder = new AtomicLong();
+		
+		private final long order = nextOrder.getAndIncrement();
+	}
+	
+	/**
+	 * Lock of the structure of the tree of a root, together with its place in the
+	 * global order in which these locks are taken. Moves of directories within, into
+	 * and out of the tree take it exclusively, so that the check against directory
+	 * loops is never interleaved with another move of a directory in the same trees.
+	 * Everything that adds to the totals of the directories above an item takes it
+	 * shared, so that those directories do not change while they are walked. They
+	 * are always taken before any directory lock.
+	 */
+	private static final class StructureLock extends ReentrantReadWriteLock {
+		
+		private static final long serialVersionUID = 1L;
+		
+		private static final AtomicLong nextOrder = new AtomicLong();
+		
+		private final long order = nextOrder.getAndIncrement();
+	}
+	
+	/**
+	 * Structure lock of this directory, only used while it is a root. Created when it is first taken.
+	 */
+	private volatile StructureLock structureLock = null;
+	
+	private StructureLock getStructureLock(){
+		StructureLock lock = structureLock;
+		if (lock == null){
+			synchronized (this){
+				if (structureLock == null) structureLock = new StructureLock();
+				lock = structureLock;
+			}
+		}
+		return lock;
+	}
+	
+	/**
+	 * Takes the structure locks of the tree of this directory and of the trees the
+	 * given items reside in, in the global order of those locks. They are taken
+	 * exclusively if one of the items is a directory, in which case the locks of
+	 * those directories themselves are taken too, so they are not taken for roots
+	 * while they are between two parents. Otherwise they are taken shared, and
+	 * files are moved in the same trees at once. Moves of directories in other
+	 * trees go on undisturbed. Nothing is locked if none of those trees is shared:
+	 * ordinary directories are used by one thread at a time, and take no locks.
+	 * @param 	items
+	 * 			items that are moved into or out of this directory, possibly null
+	 * @return	the locks that were taken, in the order they were taken
+	 */
+	private List<Lock> lockStructuresOf(Collection<? extends FilesystemItem> items){
+		boolean shared = isSharedTree(), exclusive = false;
+		for (FilesystemItem item: items){
+			if (item == null) continue;
+			shared |= item.getRoot() != null && item.getRoot().sharedTree;
+			exclusive |= item instanceof Directory;
+		}
+		if (!shared) return Collections.emptyList();
+		while (true){
+			IdentityHashMap<Directory, Boolean> roots = new IdentityHashMap<>();
+			roots.put(getRoot(), Boolean.TRUE);
+			for (FilesystemItem item: items){
+				if (item == null) continue;
+				if (item.getRoot() != null) roots.put(item.getRoot(), Boolean.TRUE);
+				if (item instanceof Directory) roots.put((Directory) item, Boolean.TRUE);
+			}
+			ArrayList<Directory> sorted = new ArrayList<>(roots.keySet());
+			sorted.sort((first, second) -> Long.compare(first.getStructureLock().order, second.getStructureLock().order));
+			ArrayList<Lock> locked = new ArrayList<>(sorted.size());
+			for (Directory root: sorted){
+				Lock lock = exclusive ? root.getStructureLock().writeLock() : root.getStructureLock().readLock();
+				lock.lock();
+				locked.add(lock);
+			}
+			boolean same = roots.containsKey(getRoot());
+			for (FilesystemItem item: items){
+				same &= item == null || item.getRoot() == null || roots.containsKey(item.getRoot());
+			}
+			if (same) return locked;
+			unlockStructures(locked);
+		}
+	}
+	
+	/**
+	 * Takes the structure locks for moving the given item into or out of this
+	 * directory, like lockStructuresOf for a single item.
+	 * @param 	item
+	 * 			item that is moved into or out of this directory, possibly null
+	 */
+	private List<Lock> lockStructuresOf(FilesystemItem item){
+		if (!isSharedTree() && (item == null || item.getRoot() == null || !item.getRoot().sharedTree))
+			return Collections.emptyList();
+		return lockStructuresOf(Collections.singletonList(item));
+	}
+	
+	private static void unlockStructures(List<Lock> locked){
+		for (int i = locked.size() - 1; i >= 0; i--) locked.get(i).unlock();
+	}
+	
+	/**
+	 * Returns whether the tree the given directory resides in is one of the trees
+	 * locked by lockStructuresOf for this directory and the given items, or whether
+	 * nothing had to be locked at all.
+	 */
+	private static boolean isLockedStructure(Directory dir, List<Lock> locked){
+		if (dir == null || locked.isEmpty()) return true;
+		StructureLock lock = dir.getRoot().structureLock;
+		return lock != null && (locked.contains(lock.readLock()) || locked.contains(lock.writeLock()));
+	}
+	
+	private static boolean isLockedStructure(Collection<Directory> dirs, List<Lock> locked){
+		for (Directory dir: dirs){
+			if (!isLockedStructure(dir, locked)) return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * Takes the structure lock of the tree of this directory shared, so that no
+	 * directory above this directory is moved until unlockTreeForReading is called.
+	 */
+	void lockTreeForReading(){
+		while (true){
+			Directory root = getRoot();
+			root.getStructureLock().readLock().lock();
+			if (root == getRoot()) return;
+			root.getStructureLock().readLock().unlock();
+		}
+	}
+	
+	void unlockTreeForReading(){
+		getRoot().getStructureLock().readLock().unlock();
+	}
+	
+	/**
+	 * Variable registering whether a concurrent directory was ever part of the tree
+	 * of this directory, while it is a root. Only the structures of such shared trees
+	 * are locked. Once set, it is never cleared, and it is passed on to the trees
+	 * that directories of this tree are moved into, or that they become the root of.
+	 */
+	private volatile boolean sharedTree;
+	
+	/**
+	 * Returns whether the tree of this directory is shared: whether a concurrent
+	 * directory was ever part of it.
+	 */
+	boolean isSharedTree(){
+		return getRoot().sharedTree;
+	}
+	
+	/**
+	 * Marks the tree of this directory as shared, if the given directory was the
+	 * root of a shared tree.
+	 * @param 	oldRoot
+	 * 			the root of a tree that a directory came from
+	 */
+	void inheritSharedTree(Directory oldRoot){
+		Directory root = getRoot();
+		if (oldRoot.sharedTree && !root.sharedTree) root.sharedTree = true;
+	}
+	
+	/**
+	 * Counter advanced twice by every move of a directory in the tree of this directory,
+	 * while it is a root: once before and once after the directory gets another parent.
+	 * The depths and roots computed below this root are kept with the epoch in which
+	 * they were computed, and are only used in that same epoch.
+	 */
+	private volatile long structureEpoch = 0;
+	
+	private static final AtomicLongFieldUpdater<Directory> structureEpochUpdater =
+			AtomicLongFieldUpdater.newUpdater(Directory.class, "structureEpoch");
+	
+	/**
+	 * Returns the structure epoch of this directory. The epoch is odd while a directory
+	 * is being moved in the tree of this directory.
+	 */
+	long getStructureEpoch(){
+		return structureEpoch;
+	}
+	
+	void advanceStructureEpoch(){
+		structureEpochUpdater.incrementAndGet(this);
+	}
+
+	/**
+	 * Counter raised whenever a directory in the tree of this directory is renamed
+	 * or moved away, while this directory is a root. The paths kept below this root
+	 * in an older generation are rebuilt when they are next asked for, so renaming
+	 * or moving directories in other trees does not touch them.
+	 */
+	private volatile long pathGeneration = 0;
+
+	private static final AtomicLongFieldUpdater<Directory> pathGenerationUpdater =
+			AtomicLongFieldUpdater.newUpdater(Directory.class, "pathGeneration");
+
+	long getPathGeneration(){
+		return pathGeneration;
+	}
+
+	void advancePathGeneration(){
+		pathGenerationUpdater.incrementAndGet(this);
+	}
+	
+	/**
+	 * Lock of the contents of this directory, null if this directory is not concurrent.
+	 */
+	private final ContentsLock contentsLock;
+	
+	/**
+	 * Returns whether this directory can be shared between threads. Reading the
+	 * contents of a concurrent directory never blocks other readers, while adding,
+	 * removing or renaming its items locks this directory only.
+	 */
+	@Basic @Immutable
+	public boolean isConcurrent(){
+		return contentsLock != null;
+	}
+	
+	void lockForReading(){
+		if (lazyContents != null) loadLazyContents();
+		if (contentsLock != null) contentsLock.readLock().lock();
+	}
+	
+	void unlockForReading(){
+		if (contentsLock != null) contentsLock.readLock().unlock();
+	}
+	
+	void lockForWriting(){
+		if (lazyContents != null) loadLazyContents();
+		if (contentsLock != null) contentsLock.writeLock().lock();
+	}
+	
+	void unlockForWriting(){
+		if (contentsLock != null) contentsLock.writeLock().unlock();
+	}
+	
+	/**
+	 * Order in which the locks of directories are taken. Directories that are not
+	 * concurrent take no lock and come first.
+	 */
+	private static final Comparator<Directory> LOCK_ORDER = (first, second) -> Long.compare(
+			first.contentsLock == null ? -1 : first.contentsLock.order,
+			second.contentsLock == null ? -1 : second.contentsLock.order);
+	
+	/**
+	 * Takes the write locks of this directory and of the directory the given item
+	 * resides in, in the global lock order, so that two moves in opposite directions
+	 * can not deadlock.
+	 * @param 	item
+	 * 			item that is moved into this directory
+	 * @return	the directory the item resides in while the locks are held, possibly null
+	 */
+	private Directory lockForWritingWithSourceOf(FilesystemItem item){
+		while (true){
+			Directory source = item.getDirectory();
+			if (source == null || source == this){
+				lockForWriting();
+			} else if (LOCK_ORDER.compare(this, source) <= 0){
+				lockForWriting();
+				source.lockForWriting();
+			} else {
+				source.lockForWriting();
+				lockForWriting();
+			}
+			if (item.getDirectory() == source) return source;
+			unlockForWriting(this, source);
+		}
+	}
+	
+	/**
+	 * Takes the write locks of this directory and of all directories the given items
+	 * reside in, in the global lock order.
+	 * @param 	items
+	 * 			effective items that are moved into this directory
+	 * @return	the directories that were locked, in the order they were locked
+	 */
+	private ArrayList<Directory> lockForWritingWithSourcesOf(Collection<? extends FilesystemItem> items){
+		while (true){
+			IdentityHashMap<Directory, Boolean> directories = new IdentityHashMap<>();
+			directories.put(this, Boolean.TRUE);
+			ArrayList<Directory> sources = new ArrayList<>(items.size());
+			for (FilesystemItem item: items){
+				Directory source = item.getDirectory();
+				sources.add(source);
+				if (source != null) directories.put(source, Boolean.TRUE);
+			}
+			ArrayList<Directory> locked = new ArrayList<>(directories.keySet());
+			locked.sort(LOCK_ORDER);
+			for (Directory dir: locked) dir.lockForWriting();
+			int i = 0;
+			boolean moved = false;
+			for (FilesystemItem item: items){
+				moved |= item.getDirectory() != sources.get(i++);
+			}
+			if (!moved) return locked;
+			for (int j = locked.size() - 1; j >= 0; j--) locked.get(j).unlockForWriting();
+		}
+	}
+	
+	private static void unlockForWriting(Directory target, Directory source){
+		if (source != null && source != target) source.unlockForWriting();
+		target.unlockForWriting();
+	}
+	
+	/**********************************************************
+	 * Indexing and item existence
+	 **********************************************************/
+	
+	/**
+	 * Returns the item at the given position in this directory, where the items
+	 * are sorted by name and the first item is at position 1.
+	 * @param 	index
+	 * 			position of the required item
+	 * @return	the item at the given position
+	 * @throws 	IndexOutOfBoundsException
+	 * 			the given position is not between 1 and the number of items
+	 * 			| index < 1 || index > getNbItems()
+	 */
+	public FilesystemItem getItemAt(int index) throws IndexOutOfBoundsException{
+		lockForReading();
+		try {
+			if (index > 0 && index <= this.contents.size()){
+				return this.contents.get(index - 1);
+			} else {
+				throw new IndexOutOfBoundsException();
+			}
+		} finally {
+			unlockForReading();
+		}
+	}
+	
+	/**
+	 * Returns a page of at most the given number of items of this directory, starting
+	 * right after the item with the given name, or at the first item if no name is given.
+	 * Pages are positioned by name rather than by index, so items that are added or
+	 * removed elsewhere in the directory between two pages do not shift the next page:
+	 * every item that stays in the directory under the same name while it is paged
+	 * through is listed exactly once.
+	 * The given name does not have to be the name of an item that still exists.
+	 * @param 	afterName
+	 * 			the cursor of the previous page, or null for the first page
+	 * @param 	limit
+	 * 			the maximum number of items on the page
+	 * @return	| for each item in result.getItems():
+	 * 			|	afterName == null || String.CASE_INSENSITIVE_ORDER.compare(item.getName(), afterName) > 0
+	 * @return	| result.getItems().size() <= limit
+	 * @throws 	IllegalArgumentException
+	 * 			| limit <= 0
+	 */
+	public ContentsPage list(String afterName, int limit) throws IllegalArgumentException{
+		if (limit <= 0) throw new IllegalArgumentException("The limit of a page must be positive.");
+		lockForReading();
+		try {
+			int start = 0;
+			if (afterName != null){
+				start = binarySearchForItem(afterName);
+				if (start < this.contents.size() && this.contents.get(start).getName().equalsIgnoreCase(afterName)) start++;
+			}
+			int end = (int) Math.min((long) start + limit, this.contents.size());
+			ArrayList<FilesystemItem> items = new ArrayList<>(this.contents.subList(start, end));
+			String nextCursor = (end < this.contents.size()) ? items.get(items.size() - 1).getName() : null;
+			return new ContentsPage(items, nextCursor);
+		} finally {
+			unlockForReading();
+		}
+	}
+
+	/**
+	 * Returns whether an item with the given name, ignoring case, exists within this directory.
+	 * @param 	itemName
+	 * 			name to look up
+	 * @return	whether an item with the given name exists
+	 */
+	public boolean exists(String itemName){
+		String key = getIndexKey(itemName);
+		lockForReading();
+		try {
+			return itemsByName.containsKey(key);
+		} finally {
+			unlockForReading();
+		}
+	}
+	
+	public int getNbItems(){
+		lockForReading();
+		try {
+			return contents.size();
+		} finally {
+			unlockForReading();
+		}
+	}
+	
+	/**
+	 * Searches for an item in the directory with the given name, ignoring case.
+	 * @param 	itemName
+	 * 			name of the required item
+	 * @return	the required item
+	 * @throws 	IllegalArgumentException
+	 * 			if no item exists with the given name within this directory, this error is thrown.
+	 */
+	
+	public FilesystemItem getItem(String itemName) throws IllegalArgumentException{
+		String key = getIndexKey(itemName);
+		FilesystemItem item;
+		lockForReading();
+		try {
+			item = itemsByName.get(key);
+		} finally {
+			unlockForReading();
+		}
+		if (item == null){
+			throw new IllegalArgumentException("No item exists in this directory with the given name!");
+		}
+		else{
+			return item;
+		}
+	}
+	
+	/**
+	 * Returns all items of this directory whose name starts with the given prefix,
+	 * ignoring case, in the order of the contents. Since the contents are sorted by
+	 * name, these items are found with a binary search followed by a scan over
+	 * only the matching range.
+	 * @param 	prefix
+	 * 			the prefix of the names of the items to return
+	 * @return	| for each item in result: item.getName().regionMatches(true, 0, prefix, 0, prefix.length())
+	 * @throws 	IllegalArgumentException
+	 * 			| prefix == null
+	 */
+	public List<FilesystemItem> listByPrefix(String prefix) throws IllegalArgumentException{
+		if (prefix == null) throw new IllegalArgumentException("No prefix given.");
+		return listByGlob(prefix, prefix.length(), false);
+	}
+
+	/**
+	 * Returns all items of this directory whose name matches the given pattern, ignoring
+	 * case, in the order of the contents. In the pattern, '*' matches any number of
+	 * characters and '?' matches exactly one character. Only the items whose name starts
+	 * with the part of the pattern before the first wildcard are looked at, so patterns
+	 * such as "report-2026-*" scan just the matching range of the contents, while
+	 * patterns such as "*.log" have to look at every item.
+	 * @param 	pattern
+	 * 			the pattern the names of the items to return must match, for example "*.log"
+	 * @return	| for each item in result: item.getName() matches pattern
+	 * @throws 	IllegalArgumentException
+	 * 			| pattern == null
+	 */
+	public List<FilesystemItem> listByGlob(String pattern) throws IllegalArgumentException{
+		if (pattern == null) throw new IllegalArgumentException("No pattern given.");
+		int literal = 0;
+		while (literal < pattern.length() && pattern.charAt(literal) != '*' && pattern.charAt(literal) != '?') literal++;
+		return listByGlob(pattern, literal, literal < pattern.length());
+	}
+
+	/**
+	 * Returns all items whose name starts with the first characters of the given
+	 * pattern, up to the given length, and that match the whole pattern if asked.
+	 */
+	private List<FilesystemItem> listByGlob(String pattern, int literal, boolean matchAll){
+		ArrayList<FilesystemItem> result = new ArrayList<>();
+		lockForReading();
+		try {
+			for (int i = binarySearchForItem(pattern.substring(0, literal)); i < this.contents.size(); i++){
+				FilesystemItem item = this.contents.get(i);
+				if (!item.getName().regionMatches(true, 0, pattern, 0, literal)) break;
+				if (!matchAll || matchesGlob(item.getName(), pattern, literal)) result.add(item);
+			}
+		} finally {
+			unlockForReading();
+		}
+		return result;
+	}
+
+	/**
+	 * Checks whether the given name matches the given pattern from the given position on,
+	 * ignoring case. Both are known to match up to that position. A star is retried at a
+	 * later position only when the rest of the pattern fails, so no copies are made.
+	 */
+	private static boolean matchesGlob(String name, String pattern, int from){
+		int n = from, p = from;
+		int star = -1, starAt = 0;
+		while (n < name.length()){
+			if (p < pattern.length() && (pattern.charAt(p) == '?'
+					|| name.regionMatches(true, n, pattern, p, 1))){
+				n++;
+				p++;
+			} else if (p < pattern.length() && pattern.charAt(p) == '*'){
+				star = p++;
+				starAt = n;
+			} else if (star >= 0){
+				p = star + 1;
+				n = ++starAt;
+			} else {
+				return false;
+			}
+		}
+		while (p < pattern.length() && pattern.charAt(p) == '*') p++;
+		return p == pattern.length();
+	}
+
+	/**
+	 * Implements the binary search algorithm (O(log(n)) to determine the index
+	 * of an element in an ArrayList. Names are compared ignoring case, character
+	 * by character, so no lower case copies of the names are made.
+	 * @param 	itemName
+	 * 			name of the item for which the index is required
+	 * @return	the index of the item for which the name was given, or the index
+	 * 			at which an item with that name has to be inserted to keep the
+	 * 			contents sorted
+	 */
+	
+	private int binarySearchForItem(String itemName){
+		int lower = 0;
+		int upper = this.contents.size();
+		while (lower < upper){
+			int middle = (lower + upper) >>> 1;
+			if (String.CASE_INSENSITIVE_ORDER.compare(this.contents.get(middle).getName(), itemName) < 0){
+				lower = middle + 1;
+			} else {
+				upper = middle;
+			}
+		}
+		return lower;
+	}
+	
+	/**
+	 * Returns whether the given item exists within the directory or not.
+	 * The item itself is looked up in the name index, so no scan of the contents is needed.
+	 * @param 	item
+	 * 			item to check existance of
+	 * @return	existance of the item
+	 */
+	public boolean hasAsItem(FilesystemItem item){
+		if (item == null) return false;
+		String key = getIndexKey(item.getName());
+		lockForReading();
+		try {
+			return itemsByName.get(key) == item;
+		} finally {
+			unlockForReading();
+		}
+	}
+	
+	/**
+	 * Returns the index of the given item within the directory if it exists.
+	 * The index is found by a binary search on the name of the item.
+	 * @param 	item
+	 * 			item to get the index of
+	 * @return	index of the given item, counting from 1 like getItemAt
+	 * 			| getItemAt(result) == item
+	 * @throws 	IllegalArgumentException
+	 * 			throws this error when item does not exist within this directory
+	 */
+	public int getIndexOf(FilesystemItem item) throws IllegalArgumentException{
+		lockForReading();
+		try {
+			if (hasAsItem(item)){
+				return binarySearchForItem(item.getName()) + 1;
+			} else {
+				throw new IllegalArgumentException("No given object exists within this directory");
+			}
+		} finally {
+			unlockForReading();
 		}
 	}
 	
@@ -0,0 +1,643 @@
+package filesystem;
+import static org.junit.Assert.*;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.Spliterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+import org.junit.*;
+
+/**
+ * A JUnit test class for testing the public methods of the Directory Class
+ *
+ */
+public class DirectoryTest {
+
+	Directory root;
+	Directory subDirectory;
+	File fileInRoot;
+
+	@Before
+	public void setUpFixture(){
+		root = new Directory("root");
+		subDirectory = new Directory(root, "Sub", true);
+		fileInRoot = new File(root, "bestand", "txt");
+	}
+
+	@Test
+	public void testGetItem_IgnoresCase() {
+		assertSame(subDirectory, root.getItem("sub"));
+		assertSame(subDirectory, root.getItem("SUB"));
+		assertTrue(root.exists("BESTAND"));
+		assertFalse(root.exists("other"));
+	}
+
+	@Test (expected = IllegalArgumentException.class)
+	public void testGetItem_NoSuchItem() {
+		root.getItem("other");
+	}
+
+	@Test
+	public void testGetItem_IgnoresCaseInAnyLocale() {
+		Locale locale = Locale.getDefault();
+		Locale.setDefault(new Locale("tr"));
+		try {
+			File title = new File(root, "title", "txt");
+			try {
+				new File(root, "TITLE", "txt");
+				fail("TITLE was added next to title.");
+			} catch (IllegalArgumentException e) {
+				// Same name.
+			}
+			assertEquals(3, root.getNbItems());
+			assertTrue(root.exists("TITLE"));
+			assertSame(title, root.resolve("/TITLE"));
+			assertSame(title, root.getItem("tItLe"));
+		} finally {
+			Locale.setDefault(locale);
+		}
+	}
+
+	@Test
+	public void testGetItemAt_SortedIgnoringCase() {
+		Directory dir = new Directory("dir");
+		new File(dir, "b", "txt");
+		new File(dir, "C", "txt");
+		new File(dir, "a", "txt");
+		new File(dir, "B_2", "txt");
+		assertEquals("a", dir.getItemAt(1).getName());
+		assertEquals("b", dir.getItemAt(2).getName());
+		assertEquals("B_2", dir.getItemAt(3).getName());
+		assertEquals("C", dir.getItemAt(4).getName());
+	}
+
+	@Test (expected = IndexOutOfBoundsException.class)
+	public void testGetItemAt_IndexZero() {
+		root.getItemAt(0);
+	}
+
+	@Test (expected = IllegalArgumentException.class)
+	public void testAddItem_DuplicateName() {
+		new File(root, "BESTAND", "pdf");
+	}
+
+	@Test
+	public void testChangeName_ResortsDirectory() {
+		fileInRoot.changeName("zzz");
+		assertSame(fileInRoot, root.getItemAt(2));
+		assertSame(fileInRoot, root.getItem("ZZZ"));
+		assertFalse(root.exists("bestand"));
+	}
+
+	@Test
+	public void testChangeName_ToEarlierName() {
+		Directory dir = new Directory("dir");
+		File file = new File(dir, "b", "txt");
+		new File(dir, "c", "txt");
+		file.changeName("a");
+		file.changeName("d");
+		assertSame(file, dir.getItemAt(2));
+		assertEquals(2, dir.getNbItems());
+		assertTrue(dir.hasAsItem(file));
+	}
+
+	@Test
+	public void testRemoveItem() {
+		root.removeItem(fileInRoot);
+		assertFalse(root.hasAsItem(fileInRoot));
+		assertFalse(root.exists("bestand"));
+		assertTrue(fileInRoot.isRoot());
+		assertEquals(1, root.getNbItems());
+	}
+
+	@Test
+	public void testManyItems_RandomOrder() {
+		int nbItems = 100000;
+		ArrayList<String> names = new ArrayList<>();
+		for (int i = 0; i < nbItems; i++){
+			names.add(String.format("item_%06d", i));
+		}
+		Collections.shuffle(names, new Random(42));
+		Directory dir = new Directory("big");
+		for (String name: names){
+			new File(dir, name, "txt");
+		}
+		assertEquals(nbItems, dir.getNbItems());
+		for (int i = 1; i < nbItems; i++){
+			assertTrue(String.CASE_INSENSITIVE_ORDER.compare(
+					dir.getItemAt(i).getName(), dir.getItemAt(i + 1).getName()) < 0);
+		}
+		for (String name: names){
+			FilesystemItem item = dir.getItem(name.toUpperCase());
+			assertEquals(name, item.getName());
+			assertSame(item, dir.getItemAt(dir.getIndexOf(item)));
+		}
+	}
+
+	@Test
+	public void testAddItems_MergesIntoContents() {
+		File a = new File("a", "txt");
+		File c = new File("C", "txt");
+		File other = new File(subDirectory, "other", "txt");
+		root.addItems(Arrays.asList(c, other, a));
+		assertEquals(5, root.getNbItems());
+		assertSame(a, root.getItemAt(1));
+		assertSame(fileInRoot, root.getItemAt(2));
+		assertSame(c, root.getItemAt(3));
+		assertSame(other, root.getItemAt(4));
+		assertSame(subDirectory, root.getItemAt(5));
+		assertSame(root, other.getDirectory());
+		assertFalse(subDirectory.exists("other"));
+		assertNotNull(root.getModificationTime());
+	}
+
+	@Test
+	public void testAddItems_InvalidBatchChangesNothing() {
+		File a = new File("a", "txt");
+		File duplicate = new File("A", "pdf");
+		try {
+			root.addItems(Arrays.asList(a, duplicate));
+			fail();
+		} catch (IllegalArgumentException e) {
+			assertEquals(2, root.getNbItems());
+			assertTrue(a.isRoot());
+			assertTrue(duplicate.isRoot());
+		}
+	}
+
+	@Test
+	public void testRemoveItems() {
+		root.removeItems(Arrays.asList(fileInRoot, subDirectory));
+		assertEquals(0, root.getNbItems());
+		assertTrue(fileInRoot.isRoot());
+		assertTrue(subDirectory.isRoot());
+		assertFalse(root.exists("sub"));
+	}
+
+	@Test
+	public void testAddItems_ManyItems() {
+		int nbItems = 1000000;
+		ArrayList<FilesystemItem> items = new ArrayList<>();
+		for (int i = 0; i < nbItems; i++){
+			items.add(new File(String.format("item_%07d", i), "txt"));
+		}
+		Collections.shuffle(items, new Random(42));
+		Directory dir = new Directory("big");
+		dir.addItems(items);
+		assertEquals(nbItems, dir.getNbItems());
+		for (int i = 1; i <= nbItems; i++){
+			assertEquals(String.format("item_%07d", i - 1), dir.getItemAt(i).getName());
+		}
+		dir.removeItems(items.subList(0, nbItems / 2));
+		assertEquals(nbItems - nbItems / 2, dir.getNbItems());
+	}
+
+	@Test
+	public void testDepth_UpdatedOnMove() {
+		Directory other = new Directory("other");
+		File deeper = new File(subDirectory, "deeper", "txt");
+		assertEquals(2, deeper.getDepth());
+		other.addItem(root);
+		assertEquals(1, root.getDepth());
+		assertEquals(3, deeper.getDepth());
+		root.makeRoot();
+		assertEquals(0, root.getDepth());
+		assertEquals(2, deeper.getDepth());
+	}
+
+	@Test
+	public void testDeepTree_NoCycles() {
+		Directory deepest = root;
+		for (int i = 0; i < 10000; i++){
+			deepest = new Directory(deepest, "level" + i, true);
+		}
+		assertEquals(10000, deepest.getDepth());
+		assertTrue(deepest.isDirectOrIndirectSubDirectoryOf(root));
+		assertFalse(root.isDirectOrIndirectSubDirectoryOf(deepest));
+		assertFalse(root.canBeAddedToDirectory(root));
+		assertFalse(deepest.canBeAddedToDirectory(subDirectory.getDirectory()));
+		Directory other = new Directory("other");
+		other.addItem(root.getItem("level0"));
+		assertEquals(10000, deepest.getDepth());
+		assertTrue(deepest.isDirectOrIndirectSubDirectoryOf(other));
+		assertFalse(deepest.isDirectOrIndirectSubDirectoryOf(root));
+	}
+
+	@Test
+	public void testStructureEpoch_OnlyTreeOfMoveAdvances() {
+		Directory other = new Directory("other");
+		File deeper = new File(new Directory(other, "dir", true), "deeper", "txt");
+		assertEquals(2, deeper.getDepth());
+		long otherEpoch = other.getStructureEpoch();
+		long rootEpoch = root.getStructureEpoch();
+		new Directory(root, "target", true).addItem(subDirectory);
+		assertEquals(otherEpoch, other.getStructureEpoch());
+		assertEquals(rootEpoch + 2, root.getStructureEpoch());
+		assertEquals(2, deeper.getDepth());
+		assertSame(other, deeper.getRoot());
+	}
+
+	@Test
+	public void testIsSharedTree_OnlyOnceConcurrentDirectoriesTakePart() {
+		Directory other = new Directory("other");
+		other.addItem(subDirectory);
+		root.addItem(subDirectory);
+		assertFalse(root.isSharedTree());
+		assertFalse(other.isSharedTree());
+		Directory concurrent = new Directory(null, "concurrent", true, true);
+		assertTrue(concurrent.isSharedTree());
+		new Directory(subDirectory, "dir", true).addItem(concurrent);
+		assertTrue(root.isSharedTree());
+		assertTrue(fileInRoot.getDirectory().isSharedTree());
+		subDirectory.makeRoot();
+		assertTrue(subDirectory.isSharedTree());
+		assertTrue(root.isSharedTree());
+		assertFalse(other.isSharedTree());
+	}
+
+	@Test
+	public void testGetRoot() {
+		File deeper = new File(subDirectory, "deeper", "txt");
+		assertSame(root, root.getRoot());
+		assertSame(root, deeper.getRoot());
+		assertNull(new File("loose", "txt").getRoot());
+		Directory other = new Directory("other");
+		other.addItem(root);
+		assertSame(other, deeper.getRoot());
+		subDirectory.makeRoot();
+		assertSame(subDirectory, deeper.getRoot());
+		assertSame(other, fileInRoot.getRoot());
+	}
+
+	@Test
+	public void testTotals() {
+		File big = new File(subDirectory, "big", 1000, true, "txt");
+		fileInRoot.enlarge(10);
+		assertEquals(1010, root.getTotalSize());
+		assertEquals(3, root.getTotalNbItems());
+		assertEquals(1000, subDirectory.getTotalSize());
+		big.shorten(400);
+		assertEquals(610, root.getTotalSize());
+		Directory other = new Directory("other");
+		other.addItem(subDirectory);
+		assertEquals(10, root.getTotalSize());
+		assertEquals(1, root.getTotalNbItems());
+		assertEquals(600, other.getTotalSize());
+		assertEquals(2, other.getTotalNbItems());
+		root.addItem(other);
+		assertEquals(610, root.getTotalSize());
+		assertEquals(4, root.getTotalNbItems());
+		subDirectory.makeRoot();
+		assertEquals(10, root.getTotalSize());
+		assertEquals(0, other.getTotalSize());
+		root.removeItems(Arrays.asList(fileInRoot, other));
+		assertEquals(0, root.getTotalSize());
+		assertEquals(0, root.getTotalNbItems());
+	}
+
+	@Test
+	public void testByteQuota_Enlarge() {
+		root.setByteQuota(100);
+		File file = new File(subDirectory, "data", 90, true, "txt");
+		file.enlarge(10);
+		try {
+			file.enlarge(1);
+			fail();
+		} catch (QuotaExceededException e) {
+			assertSame(root, e.getDir());
+		}
+		assertEquals(100, file.getSize());
+		assertEquals(100, root.getTotalSize());
+		assertEquals(100, subDirectory.getTotalSize());
+		file.shorten(50);
+		file.enlarge(50);
+	}
+
+	@Test
+	public void testByteQuota_AddItem() {
+		subDirectory.setByteQuota(100);
+		File file = new File(root, "data", 101, true, "txt");
+		try {
+			subDirectory.addItem(file);
+			fail();
+		} catch (QuotaExceededException e) {
+			assertSame(subDirectory, e.getDir());
+		}
+		assertSame(root, file.getDirectory());
+		assertTrue(root.hasAsItem(file));
+		assertEquals(101, root.getTotalSize());
+		assertEquals(0, subDirectory.getTotalSize());
+	}
+
+	@Test
+	public void testItemQuota() {
+		Directory dir = new Directory(root, "limited", true);
+		dir.setItemQuota(2);
+		new File(dir, "a", "txt");
+		new File(dir, "b", "txt");
+		try {
+			dir.addItems(Arrays.asList(new File("c", "txt"), fileInRoot));
+			fail();
+		} catch (QuotaExceededException e) {
+			assertSame(dir, e.getDir());
+		}
+		assertEquals(2, dir.getNbItems());
+		assertSame(root, fileInRoot.getDirectory());
+		assertEquals(5, root.getTotalNbItems());
+		dir.setItemQuota(Directory.NO_QUOTA);
+		new File(dir, "c", "txt");
+	}
+
+	@Test
+	public void testGetPath() {
+		File deeper = new File(subDirectory, "deeper.txt", "txt");
+		assertEquals("/", root.getPath());
+		assertEquals("/Sub", subDirectory.getPath());
+		assertEquals("/Sub/deeper.txt", deeper.getPath());
+	}
+
+	@Test
+	public void testResolve() {
+		File deeper = new File(subDirectory, "deeper.txt", "txt");
+		assertSame(root, root.resolve("/"));
+		assertSame(deeper, root.resolve("/Sub/deeper.txt"));
+		assertSame(deeper, root.resolve("/sub//DEEPER.TXT"));
+		assertSame(deeper, subDirectory.resolve("deeper.txt"));
+		assertSame(deeper, subDirectory.resolve("/sub/deeper.txt"));
+		PathCache cache = root.getPathCache();
+		assertEquals(3, cache.getHits());
+		assertEquals(2, cache.getMisses());
+	}
+
+	@Test (expected = IllegalArgumentException.class)
+	public void testResolve_ThroughFile() {
+		root.resolve("/bestand/other");
+	}
+
+	@Test
+	public void testResolve_InvalidatedByChanges() {
+		File deeper = new File(subDirectory, "deeper", "txt");
+		assertSame(deeper, root.resolve("/sub/deeper"));
+		subDirectory.changeName("renamed");
+		assertSame(deeper, root.resolve("/renamed/deeper"));
+		try {
+			root.resolve("/sub/deeper");
+			fail();
+		} catch (IllegalArgumentException e) {
+			// the old path is gone
+		}
+		Directory other = new Directory(root, "other", true);
+		other.addItem(deeper);
+		assertSame(deeper, root.resolve("/other/deeper"));
+		assertFalse(subDirectory.exists("deeper"));
+		deeper.makeRoot();
+		try {
+			root.resolve("/other/deeper");
+			fail();
+		} catch (IllegalArgumentException e) {
+			// removed
+		}
+		assertEquals(0, root.getPathCache().getHits());
+	}
+
+	@Test
+	public void testPathCache_Bounded() {
+		Directory dir = new Directory("dir");
+		for (int i = 0; i < PathCache.DEFAULT_CAPACITY + 10; i++){
+			new File(dir, "file" + i, "txt");
+			dir.resolve("/file" + i);
+		}
+		assertEquals(PathCache.DEFAULT_CAPACITY, dir.getPathCache().getSize());
+		dir.resolve("/file" + (PathCache.DEFAULT_CAPACITY + 9));
+		assertEquals(1, dir.getPathCache().getHits());
+		dir.resolve("/file0");
+		assertEquals(1, dir.getPathCache().getHits());
+	}
+
+	@Test
+	public void testGetAbsolutePath_KeptUntilChanged() {
+		File deeper = new File(subDirectory, "deeper", "txt");
+		String path = deeper.getAbsolutePath();
+		assertEquals("/Sub/deeper", path);
+		assertEquals(path, deeper.getAbsolutePath());
+		new File(root, "unrelated", "txt").changeName("other");
+		assertEquals(path, deeper.getAbsolutePath());
+		subDirectory.changeName("renamed");
+		assertEquals("/renamed/deeper", deeper.getAbsolutePath());
+		deeper.changeName("moved");
+		assertEquals("/renamed/moved", deeper.getAbsolutePath());
+		Directory parent = new Directory(root, "parent", true);
+		parent.addItem(subDirectory);
+		assertEquals("/parent/renamed/moved", deeper.getAbsolutePath());
+		subDirectory.makeRoot();
+		assertEquals("/moved", deeper.getAbsolutePath());
+		assertEquals("/", subDirectory.getAbsolutePath());
+	}
+
+	@Test
+	public void testGetAbsolutePath_KeptWhileOtherTreesChange() {
+		File deeper = new File(subDirectory, "deeper", "txt");
+		String path = deeper.getAbsolutePath();
+		new Directory(subDirectory, "created", true);
+		assertEquals(path, deeper.getAbsolutePath());
+		Directory other = new Directory("other");
+		Directory elsewhere = new Directory(other, "elsewhere", true);
+		elsewhere.changeName("renamed");
+		new Directory(other, "parent", true).addItem(elsewhere);
+		assertEquals(path, deeper.getAbsolutePath());
+		other.addItem(root);
+		assertEquals("/root/Sub/deeper", deeper.getAbsolutePath());
+	}
+
+	@Test
+	public void testWalk_PreOrderByName() {
+		File deeper = new File(subDirectory, "deeper", "txt");
+		ArrayList<FilesystemItem> visited = new ArrayList<>();
+		root.walk(visited::add);
+		assertEquals(Arrays.asList(fileInRoot, subDirectory, deeper), visited);
+		assertEquals(visited, root.stream().collect(Collectors.toList()));
+	}
+
+	@Test
+	public void testParallelStream_SplitsOneLargeSubtree() {
+		Directory only = new Directory("only");
+		Directory big = new Directory(only, "big", true);
+		for (int i = 0; i < 20000; i++) new File(big, "file" + i, "txt");
+		List<FilesystemItem> sequential = only.stream().collect(Collectors.toList());
+		Spliterator<FilesystemItem> suffix = new Traversal.TreeSpliterator(Traversal.getContentsOf(only));
+		Spliterator<FilesystemItem> prefix = suffix.trySplit();
+		assertNotNull(prefix);
+		assertTrue(prefix.estimateSize() > 5000 && suffix.estimateSize() > 5000);
+		assertNotNull(prefix.trySplit());
+		assertNotNull(suffix.trySplit());
+		ArrayList<FilesystemItem> split = new ArrayList<>();
+		new Traversal.TreeSpliterator(Traversal.getContentsOf(only)).forEachRemaining(split::add);
+		assertEquals(sequential, split);
+		assertEquals(sequential, only.parallelStream().collect(Collectors.toList()));
+	}
+
+	@Test
+	public void testParallelStream_SplitsInPreOrder() {
+		for (int i = 0; i < 5; i++){
+			Directory dir = new Directory(subDirectory, "dir" + i, true);
+			for (int j = 0; j < 7; j++) new File(dir, "file" + j, "txt");
+		}
+		List<FilesystemItem> sequential = root.stream().collect(Collectors.toList());
+		ArrayDeque<Spliterator<FilesystemItem>> parts = new ArrayDeque<>();
+		parts.add(new Traversal.TreeSpliterator(Traversal.getContentsOf(root)));
+		ArrayList<FilesystemItem> visited = new ArrayList<>();
+		while (!parts.isEmpty()) {
+			Spliterator<FilesystemItem> part = parts.pollFirst();
+			Spliterator<FilesystemItem> prefix = part.trySplit();
+			if (prefix == null) {
+				part.forEachRemaining(visited::add);
+			} else {
+				parts.addFirst(part);
+				parts.addFirst(prefix);
+			}
+		}
+		assertEquals(sequential, visited);
+	}
+
+	@Test
+	public void testFind_SequentialAndParallelAgree() {
+		for (int i = 0; i < 50; i++){
+			Directory dir = new Directory(i % 2 == 0 ? root : subDirectory, "dir" + i, true);
+			for (int j = 0; j < 100; j++) new File(dir, "file" + j, i % 3 == 0 ? "java" : "txt");
+		}
+		Predicate<FilesystemItem> isJava = item -> item instanceof File && ((File) item).getType() == FileType.JAVA;
+		List<FilesystemItem> sequential = root.find(isJava);
+		assertEquals(17 * 100, sequential.size());
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			assertEquals(new HashSet<>(sequential), new HashSet<>(root.find(isJava, pool)));
+			assertEquals(sequential.size(), root.find(isJava, pool).size());
+		} finally {
+			pool.shutdown();
+		}
+		assertEquals(sequential.size(), root.parallelStream().filter(isJava).count());
+		assertEquals(sequential, root.parallelStream().filter(isJava).collect(Collectors.toList()));
+	}
+
+	@Test
+	public void testFind_ParallelOnDeepTrees() {
+		Directory chain = subDirectory, comb = new Directory(root, "comb", true);
+		for (int i = 0; i < 10000; i++){
+			chain = new Directory(chain, "level" + i, true);
+			new File(comb, "file", "java");
+			new File(new Directory(comb, "tooth", true), "file", "java");
+			comb = new Directory(comb, "level" + i, true);
+		}
+		new File(chain, "bottom", "java");
+		Predicate<FilesystemItem> isJava = item -> item instanceof File && ((File) item).getType() == FileType.JAVA;
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			assertEquals(1, subDirectory.find(isJava, pool).size());
+			assertEquals(20000, ((Directory) root.getItem("comb")).find(isJava, pool).size());
+			LongAdder visited = new LongAdder();
+			root.walk(item -> visited.increment(), pool);
+			assertEquals(root.getTotalNbItems(), visited.sum());
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	public void testFileIndex_KeptUpToDate() {
+		File big = new File(subDirectory, "big", 5000, true, "pdf");
+		FileIndex index = subDirectory.enableFileIndex();
+		assertSame(root, index.getOwner());
+		assertSame(index, root.getFileIndex());
+		assertEquals(2, index.getNbFiles());
+		assertEquals(Arrays.asList(big), index.getFilesOfType(FileType.PDF));
+		assertEquals(Arrays.asList(big), index.getFilesWithSizeBetween(1000, 10000));
+		assertTrue(index.getFilesModifiedBetween(Long.MIN_VALUE, Long.MAX_VALUE).isEmpty());
+
+		long before = FilesystemItem.getCurrentTime();
+		fileInRoot.enlarge(2000);
+		assertEquals(Arrays.asList(fileInRoot, big), index.getFilesWithSizeBetween(1000, 10000));
+		assertEquals(Arrays.asList(fileInRoot), index.getFilesModifiedBetween(before, Long.MAX_VALUE));
+		big.shorten(4500);
+		assertEquals(Arrays.asList(big, fileInRoot), index.getFilesWithSizeBetween(0, 10000));
+
+		File added = new File(subDirectory, "added", 3000, true, "pdf");
+		assertEquals(Arrays.asList(big, added), index.getFilesOfType(FileType.PDF));
+		Directory other = new Directory("other");
+		other.addItem(subDirectory);
+		assertEquals(Arrays.asList(fileInRoot), index.getFilesWithSizeBetween(0, 10000));
+		assertTrue(index.getFilesOfType(FileType.PDF).isEmpty());
+		FileIndex otherIndex = other.enableFileIndex();
+		assertEquals(2, otherIndex.getNbFiles());
+		root.addItem(other);
+		assertSame(index, other.getFileIndex());
+		assertEquals(3, index.getNbFiles());
+		root.disableFileIndex();
+		assertNull(other.getFileIndex());
+	}
+
+	@Test
+	public void testListByPrefix_IgnoresCase() {
+		Directory dir = new Directory("dir");
+		for (String name: new String[] {"report-2025-12", "Report-2026-01", "report-2026-02", "reports", "readme", "s"}){
+			new File(dir, name, "txt");
+		}
+		assertEquals(Arrays.asList(dir.getItem("Report-2026-01"), dir.getItem("report-2026-02")),
+				dir.listByPrefix("REPORT-2026"));
+		assertEquals(4, dir.listByPrefix("rep").size());
+		assertEquals(6, dir.listByPrefix("").size());
+		assertTrue(dir.listByPrefix("x").isEmpty());
+	}
+
+	@Test
+	public void testListByGlob() {
+		Directory dir = new Directory("dir");
+		for (String name: new String[] {"app.log", "app.log.1", "DB.LOG", "report-2026-01", "report-2026-02.log", "log"}){
+			new File(dir, name, "txt");
+		}
+		assertEquals(Arrays.asList(dir.getItem("app.log"), dir.getItem("DB.LOG"), dir.getItem("report-2026-02.log")),
+				dir.listByGlob("*.log"));
+		assertEquals(2, dir.listByGlob("report-2026-*").size());
+		assertEquals(Arrays.asList(dir.getItem("report-2026-01")), dir.listByGlob("report-????-0?"));
+		assertEquals(Arrays.asList(dir.getItem("app.log.1")), dir.listByGlob("a*.*.*"));
+		assertEquals(Arrays.asList(dir.getItem("log")), dir.listByGlob("LOG"));
+		assertEquals(6, dir.listByGlob("*").size());
+	}
+
+	@Test
+	public void testList_PagesThroughAllItems() {
+		Directory dir = new Directory("dir");
+		for (int i = 0; i < 25; i++) new File(dir, String.format("file%02d", i), "txt");
+		ArrayList<FilesystemItem> listed = new ArrayList<>();
+		ContentsPage page = dir.list(null, 10);
+		listed.addAll(page.getItems());
+		assertEquals("file09", page.getNextCursor());
+		new File(dir, "file00a", "txt");
+		dir.removeItem(dir.getItem("file10"));
+		while (page.hasNext()){
+			page = dir.list(page.getNextCursor(), 10);
+			listed.addAll(page.getItems());
+		}
+		assertEquals(24, listed.size());
+		assertEquals("file11", listed.get(10).getName());
+		assertEquals("file24", listed.get(23).getName());
+		assertTrue(dir.list("FILE24", 10).getItems().isEmpty());
+		assertEquals(2, dir.list("file00", 2).getItems().size());
+		assertSame(dir.getItem("file00a"), dir.list("file00", 2).getItems().get(0));
+	}
+
+	@Test (expected = IllegalArgumentException.class)
+	public void testList_NoLimit() {
+		root.list(null, 0);
+	}
+
+}
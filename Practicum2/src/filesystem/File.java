@@ -1,8 +1,9 @@
 package filesystem;
 import be.kuleuven.cs.som.annotate.*;
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 
 /**
  * A class of files.
@@ -39,7 +40,7 @@ public class File extends FilesystemItem{
      * @param  	writable
      *         	The writability of the new file.
      * @param   type
-     *          the type of the file
+     *          the name of the type of the file, see FileType
      * @param   dir
      * 			the directory in which you want to create a file
      * @effect  The name of the file is set to the given name.
@@ -55,18 +56,25 @@ public class File extends FilesystemItem{
      *          | (new.getCreationTime().getTime() <= (new System).currentTimeMillis())
      * @post    The new file has no time of last modification.
      *          | new.getModificationTime() == null
-     * @post	the type of the file is set to the given type
-     * 			if the type is not valid the default type is used (".txt").   
+     * @post	the type of the file is set to the known file type with the given name,
+     * 			if there is no such type the default type is used (".txt").
+     * 			| if (FileType.get(filetype) != null)
+     * 			|	then new.getType() == FileType.get(filetype)
+     * 			|	else new.getType() == FileType.TXT
+     * @effect	If the given directory is effective, the new file is added to it.
+     * 			| if (dir != null) then dir.addItem(this)
      */
 	public File(Directory dir,String name, int size, boolean writable,String filetype) {
 		super(dir, name, writable);
         setSize(size);
-        if (canHaveAsType(filetype)){
-        	this.filetype = filetype;
+        FileType type = FileType.get(filetype);
+        if (canHaveAsType(type)){
+        	this.filetype = type;
         }
         else {
-        	this.filetype = "txt";
+        	this.filetype = FileType.TXT;
         } 
+        if (dir != null) dir.addItem(this);
     }
 	
 	/**
@@ -115,7 +123,13 @@ public class File extends FilesystemItem{
     /**
      * Variable registering the size of this file (in bytes).
      */
-    private int size = 0;
+    private volatile int size = 0;
+    
+    /**
+     * Updater used to change the size of this file without locking.
+     */
+    private static final AtomicIntegerFieldUpdater<File> sizeUpdater =
+    		AtomicIntegerFieldUpdater.newUpdater(File.class, "size");
     
     /**
      * Variable registering the maximum size of any file (in bytes).
@@ -178,7 +192,7 @@ public class File extends FilesystemItem{
      * @effect  The size of this file is increased with the given delta.
      *          | changeSize(delta)
      */
-    public void enlarge(int delta) throws NotWritableException {
+    public void enlarge(int delta) throws NotWritableException, IllegalArgumentException, QuotaExceededException {
         changeSize(delta);
     }
 
@@ -193,12 +207,16 @@ public class File extends FilesystemItem{
      * @effect  The size of this file is decreased with the given delta.
      *          | changeSize(-delta)
      */
-    public void shorten(int delta) throws NotWritableException {
+    public void shorten(int delta) throws NotWritableException, IllegalArgumentException {
         changeSize(-delta);
     }
 
     /**
-     * Change the size of this file with the given delta.
+     * Change the size of this file with the given delta. The size is updated
+     * atomically, so files can be enlarged and shortened by many threads at once.
+     * No lock is taken unless a concurrent directory was ever part of the tree of
+     * this file; in such a shared tree, the structure of the tree is locked shared,
+     * so that no directory above this file moves while the totals are adapted.
      *
      * @param  delta
      *         The amount of bytes by which the size of this file
@@ -209,20 +227,75 @@ public class File extends FilesystemItem{
      *         | setSize(getSize()+delta)
      * @effect The modification time is updated.
      *         | setModificationTime()
+     * @effect The totals of the directories above this file are adapted with the given delta.
+     *         | if (!isRoot()) then getDirectory().addToTotals(delta, 0)
      * @throws NotWritableException(this)
      *         This file is not writable.
      *         | ! isWritable()
+     * @throws IllegalArgumentException
+     *         The new size would not be a valid size.
+     *         | ! isValidSize((long) getSize() + delta)
+     * @throws QuotaExceededException
+     *         Growing this file would exceed the byte quota of a directory above it.
      */
     @Model 
-    private void changeSize(int delta) throws NotWritableException{
+    private void changeSize(int delta) throws NotWritableException, IllegalArgumentException, QuotaExceededException{
         if (isWritable()) {
-            setSize(getSize()+delta);
-            setModificationTime();            
+        	List<Journal> journals = Journal.lock(this);
+        	try {
+        		Directory dir = getDirectory();
+        		boolean shared = dir != null && dir.isSharedTree();
+        		if (shared) dir = lockDirectoryForReading();
+        		try {
+        			if (dir != null && delta > 0) dir.reserveTotals(delta, 0);
+        			int current;
+        			long updated;
+        			do {
+        				current = size;
+        				updated = (long) current + delta;
+        				if (updated < 0 || updated > getMaximumSize()){
+        					if (dir != null && delta > 0) dir.addToTotals(-delta, 0);
+        					throw new IllegalArgumentException("The size of this file can not be changed by " + delta + " bytes.");
+        				}
+        			} while (!sizeUpdater.compareAndSet(this, current, (int) updated));
+        			if (dir != null && delta < 0) dir.addToTotals(delta, 0);
+        		} finally {
+        			if (shared && dir != null) unlockForReading(dir);
+        		}
+        		setModificationTime();
+        		Journal.recordResize(Journal.of(this), this, delta);
+        	} finally {
+        		Journal.unlock(journals);
+        	}
         }else{
         	throw new NotWritableException(this);
         }
     }
         
+    /**
+     * Takes the structure lock of the tree of this file shared and the read lock of
+     * the directory of this file, so that neither this file nor a directory above it
+     * is moved while its size change is added to the totals of its directories.
+     * 
+     * @return the directory of this file that was locked, null for a root file
+     */
+    private Directory lockDirectoryForReading() {
+    	while (true) {
+    		Directory dir = getDirectory();
+    		if (dir == null) return null;
+    		dir.lockTreeForReading();
+    		dir.lockForReading();
+    		if (dir == getDirectory()) return dir;
+    		dir.unlockForReading();
+    		dir.unlockTreeForReading();
+    	}
+    }
+    
+    private static void unlockForReading(Directory dir) {
+    	dir.unlockForReading();
+    	dir.unlockTreeForReading();
+    }
+        
     /**********************************************************
      * file type: total programming
      **********************************************************/
@@ -230,32 +303,26 @@ public class File extends FilesystemItem{
     /**
      * the type of the file
      */
-    private final String filetype;
+    private final FileType filetype;
 
     /**
      * checks of the type is valid
      * @param type
      * 	      the type you want to check if it is valid
-     * @return true
-     * 		   if the type is valid
-     * 		   false
-     * 		   of the type is not valid
+     * @return true if the type is effective, that is if it was
+     * 		   looked up or registered in FileType
+     * 		   | result == (type != null)
      */
-    private static boolean canHaveAsType(String type){
-    	ArrayList<String> allowedTypes = new ArrayList<String>() {{ add("txt"); add("pdf"); add("java"); }};
-    	for (String str: allowedTypes){
-    	    if(str.trim().contains(type))
-    	        return true;
-    	}
-    	return false;
+    private static boolean canHaveAsType(FileType type){
+    	return type != null;
     }
     
     /**
      * getting the filetype
      * @return the filetype
      */
-    @Basic @Raw
-    private String getType(){
+    @Basic @Raw @Immutable
+    public FileType getType(){
     	return this.filetype;
     }
     
@@ -263,17 +330,27 @@ public class File extends FilesystemItem{
      * directory
      **********************************************************/
     
-    /**
-     * the directory where the file is stored
-     */
-    private Directory dir;
-    
     /**
      * gives the directory where the file is stored.
      * @return the directory where the file is stored or null if it is a rootfile
+     * 		   | result == getDirectory()
      */
     public Directory getDir(){
-    	return this.dir;
+    	return getDirectory();
+    }
+
+    /**
+     * Set the modification time of this file to the current time, and mark this
+     * file as changed in the file index of its tree, if that tree has one.
+     *
+     * @effect	| super.setModificationTime()
+     */
+    @Override @Model
+    protected void setModificationTime() {
+    	super.setModificationTime();
+    	Directory root = getRoot();
+    	FileIndex index = (root == null) ? null : root.getFileIndex();
+    	if (index != null) index.update(this);
     }
 
 	@Override
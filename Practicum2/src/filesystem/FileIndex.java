@@ -0,0 +1,243 @@
+package filesystem;
+import be.kuleuven.cs.som.annotate.*;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Secondary indexes over all files in the tree of a root directory: by type,
+ * by size and by modification time. Range queries take logarithmic time plus
+ * the time to list the files found, instead of a walk over the whole tree.
+ *
+ * An index is kept up to date by the tree itself: files that are added to or
+ * removed from the tree are registered here. Files whose size or modification
+ * time changes are only marked as changed, without taking the lock of the
+ * index, and their keys are brought up to date by the next query by size or
+ * by modification time. Files that were never modified are not listed by
+ * modification time.
+ *
+ * @invar	Every file in this index belongs to the tree of the owner of this index.
+ * 			| for each file in index: file.getRoot() == getOwner()
+ */
+public final class FileIndex {
+
+	/**
+	 * Initialise a new empty index for the tree of the given root directory.
+	 */
+	FileIndex(Directory owner) {
+		this.owner = owner;
+	}
+
+	/**
+	 * Variable referencing the root directory whose tree is indexed.
+	 */
+	private final Directory owner;
+
+	/**
+	 * The keys under which one file is indexed, as they were when the file was last registered.
+	 */
+	private static final class Entry {
+
+		Entry(File file, long serial) {
+			this.file = file;
+			this.serial = serial;
+		}
+
+		final File file;
+
+		/**
+		 * Number that tells apart entries with the same size or modification time.
+		 */
+		final long serial;
+
+		int size;
+
+		long modificationTime;
+	}
+
+	private static final Comparator<Entry> SIZE_ORDER = (first, second) -> {
+		int result = Integer.compare(first.size, second.size);
+		return (result != 0) ? result : Long.compare(first.serial, second.serial);
+	};
+
+	private static final Comparator<Entry> MODIFICATION_TIME_ORDER = (first, second) -> {
+		int result = Long.compare(first.modificationTime, second.modificationTime);
+		return (result != 0) ? result : Long.compare(first.serial, second.serial);
+	};
+
+	private final IdentityHashMap<File, Entry> entries = new IdentityHashMap<>();
+
+	private final HashMap<FileType, LinkedHashSet<File>> byType = new HashMap<>();
+
+	private final TreeSet<Entry> bySize = new TreeSet<>(SIZE_ORDER);
+
+	private final TreeSet<Entry> byModificationTime = new TreeSet<>(MODIFICATION_TIME_ORDER);
+
+	/**
+	 * Files whose size or modification time changed since their keys were last registered.
+	 */
+	private final Set<File> changed = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * Variable registering the serial number for the next file added to this index.
+	 */
+	private long nextSerial = 0;
+
+	/**
+	 * Return the root directory whose tree is indexed.
+	 */
+	@Basic @Immutable
+	public Directory getOwner() {
+		return owner;
+	}
+
+	/**
+	 * Return the number of files in this index.
+	 */
+	public synchronized int getNbFiles() {
+		return entries.size();
+	}
+
+	/**
+	 * Return all indexed files of the given type.
+	 *
+	 * @param	type
+	 * 			The type of the files to return.
+	 * @return	| for each file in result: file.getType() == type
+	 */
+	public synchronized List<File> getFilesOfType(FileType type) {
+		LinkedHashSet<File> files = byType.get(type);
+		return (files == null) ? new ArrayList<File>() : new ArrayList<>(files);
+	}
+
+	/**
+	 * Return all indexed files with a size between the given bounds, both inclusive,
+	 * from the smallest to the largest.
+	 *
+	 * @param	minimum
+	 * 			The smallest size of the files to return.
+	 * @param	maximum
+	 * 			The largest size of the files to return.
+	 * @return	| for each file in result: minimum <= file.getSize() && file.getSize() <= maximum
+	 */
+	public synchronized List<File> getFilesWithSizeBetween(int minimum, int maximum) {
+		ArrayList<File> result = new ArrayList<>();
+		if (minimum > maximum) return result;
+		Entry from = new Entry(null, Long.MIN_VALUE);
+		from.size = minimum;
+		Entry to = new Entry(null, Long.MAX_VALUE);
+		to.size = maximum;
+		registerChanges();
+		for (Entry entry: bySize.subSet(from, true, to, true)) result.add(entry.file);
+		return result;
+	}
+
+	/**
+	 * Return all indexed files that were last modified between the given times, both
+	 * inclusive and in milliseconds since the epoch, from the oldest to the newest change.
+	 *
+	 * @param	from
+	 * 			The earliest modification time of the files to return.
+	 * @param	to
+	 * 			The latest modification time of the files to return.
+	 * @return	| for each file in result:
+	 * 			|	from <= file.getModificationTimeMillis() && file.getModificationTimeMillis() <= to
+	 */
+	public synchronized List<File> getFilesModifiedBetween(long from, long to) {
+		ArrayList<File> result = new ArrayList<>();
+		if (from > to) return result;
+		Entry first = new Entry(null, Long.MIN_VALUE);
+		first.modificationTime = Math.max(from, FilesystemItem.NOT_MODIFIED + 1);
+		Entry last = new Entry(null, Long.MAX_VALUE);
+		last.modificationTime = to;
+		if (first.modificationTime > to) return result;
+		registerChanges();
+		for (Entry entry: byModificationTime.subSet(first, true, last, true)) result.add(entry.file);
+		return result;
+	}
+
+	/**
+	 * Add the given file to this index, unless it no longer belongs to the tree
+	 * of the owner. Keys of a file that is already indexed are brought up to date.
+	 */
+	synchronized void add(File file) {
+		if (file.getRoot() != owner) return;
+		Entry entry = entries.get(file);
+		if (entry == null) {
+			entry = new Entry(file, nextSerial++);
+			entries.put(file, entry);
+			LinkedHashSet<File> files = byType.get(file.getType());
+			if (files == null) {
+				files = new LinkedHashSet<>();
+				byType.put(file.getType(), files);
+			}
+			files.add(file);
+		} else {
+			unlinkKeys(entry);
+		}
+		linkKeys(entry);
+	}
+
+	/**
+	 * Mark the keys of the given file as changed. They are brought up to date, if
+	 * the file is in this index, by the next query that orders files by a key.
+	 */
+	void update(File file) {
+		if (!changed.contains(file)) changed.add(file);
+	}
+
+	/**
+	 * Bring the keys of all files that were marked as changed up to date. A file is
+	 * unmarked before its keys are read, so a change made meanwhile marks it again.
+	 */
+	private void registerChanges() {
+		for (Iterator<File> files = changed.iterator(); files.hasNext();) {
+			File file = files.next();
+			files.remove();
+			Entry entry = entries.get(file);
+			if (entry != null) {
+				unlinkKeys(entry);
+				linkKeys(entry);
+			}
+		}
+	}
+
+	/**
+	 * Remove the given file from this index, if it is in it.
+	 */
+	synchronized void remove(File file) {
+		changed.remove(file);
+		Entry entry = entries.remove(file);
+		if (entry == null) return;
+		unlinkKeys(entry);
+		LinkedHashSet<File> files = byType.get(file.getType());
+		files.remove(file);
+		if (files.isEmpty()) byType.remove(file.getType());
+	}
+
+	/**
+	 * Remove the given entry from the ordered indexes, under its registered keys.
+	 */
+	private void unlinkKeys(Entry entry) {
+		bySize.remove(entry);
+		byModificationTime.remove(entry);
+	}
+
+	/**
+	 * Register the current keys of the file of the given entry and add it to the ordered indexes.
+	 */
+	private void linkKeys(Entry entry) {
+		entry.size = entry.file.getSize();
+		entry.modificationTime = entry.file.getModificationTimeMillis();
+		bySize.add(entry);
+		if (entry.modificationTime != FilesystemItem.NOT_MODIFIED) byModificationTime.add(entry);
+	}
+}
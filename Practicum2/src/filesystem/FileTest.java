@@ -14,67 +14,67 @@ public class FileTest {
 
 	File fileStringIntBoolean;
 	File fileString;
-	Date timeBeforeConstruction, timeAfterConstruction;
+	long timeBeforeConstruction, timeAfterConstruction;
 	
 	File fileNotWritable;
-	Date timeBeforeConstructionNotWritable, timeAfterConstructionNotWritable;
+	long timeBeforeConstructionNotWritable, timeAfterConstructionNotWritable;
 	
 	@Before
 	public void setUpFixture(){
-		timeBeforeConstruction = new Date();
-		fileStringIntBoolean = new File("bestand.txt",100, true);
-		fileString = new File("bestand.txt");
-		timeAfterConstruction = new Date();
+		timeBeforeConstruction = System.currentTimeMillis();
+		fileStringIntBoolean = new File("bestand",100,true,"txt");
+		fileString = new File("bestand","txt");
+		timeAfterConstruction = System.currentTimeMillis();
 
-		timeBeforeConstructionNotWritable = new Date();
-		fileNotWritable = new File("bestand.txt",100,false);
-		timeAfterConstructionNotWritable = new Date();
+		timeBeforeConstructionNotWritable = System.currentTimeMillis();
+		fileNotWritable = new File("bestand",100,false,"txt");
+		timeAfterConstructionNotWritable = System.currentTimeMillis();
 	}
 
 	@Test
 	public void testFileStringIntBoolean_LegalCase() {
-		assertEquals("bestand.txt",fileStringIntBoolean.getName());
+		assertEquals("bestand",fileStringIntBoolean.getName());
 		assertEquals(fileStringIntBoolean.getSize(),100);
 		assertTrue(fileStringIntBoolean.isWritable());
-		assertNull(fileStringIntBoolean.getModificationTime());
-		assertFalse(timeBeforeConstruction.after(fileStringIntBoolean.getCreationTime()));
-		assertFalse(fileStringIntBoolean.getCreationTime().after(timeAfterConstruction));
+		assertEquals(File.NOT_MODIFIED,fileStringIntBoolean.getModificationTimeMillis());
+		assertTrue(timeBeforeConstruction <= fileStringIntBoolean.getCreationTimeMillis());
+		assertTrue(fileStringIntBoolean.getCreationTimeMillis() <= timeAfterConstruction);
 	}
 	
 	@Test
 	public void testFileStringIntBoolean_IllegalCase() {
-		timeBeforeConstruction = new Date();
-		fileStringIntBoolean = new File("$IllegalName$",File.getMaximumSize(),false);
-		timeAfterConstruction = new Date();
+		timeBeforeConstruction = System.currentTimeMillis();
+		fileStringIntBoolean = new File("$IllegalName$",File.getMaximumSize(),false,"txt");
+		timeAfterConstruction = System.currentTimeMillis();
 		assertTrue(File.isValidName(fileStringIntBoolean.getName()));
 		assertEquals(File.getMaximumSize(),fileStringIntBoolean.getSize());
 		assertFalse(fileStringIntBoolean.isWritable());
-		assertNull(fileStringIntBoolean.getModificationTime());
-		assertFalse(timeBeforeConstruction.after(fileStringIntBoolean.getCreationTime()));
-		assertFalse(fileStringIntBoolean.getCreationTime().after(timeAfterConstruction));
+		assertEquals(File.NOT_MODIFIED,fileStringIntBoolean.getModificationTimeMillis());
+		assertTrue(timeBeforeConstruction <= fileStringIntBoolean.getCreationTimeMillis());
+		assertTrue(fileStringIntBoolean.getCreationTimeMillis() <= timeAfterConstruction);
 	}
 
 	@Test
 	public void testFileString_LegalCase() {
-		assertEquals("bestand.txt",fileString.getName());
+		assertEquals("bestand",fileString.getName());
 		assertEquals(0,fileString.getSize());
 		assertTrue(fileString.isWritable());
-		assertNull(fileString.getModificationTime());
-		assertFalse(timeBeforeConstruction.after(fileString.getCreationTime()));
-		assertFalse(fileString.getCreationTime().after(timeAfterConstruction));
+		assertEquals(File.NOT_MODIFIED,fileString.getModificationTimeMillis());
+		assertTrue(timeBeforeConstruction <= fileString.getCreationTimeMillis());
+		assertTrue(fileString.getCreationTimeMillis() <= timeAfterConstruction);
 	}
 	
 	@Test
 	public void testFileString_IllegalCase() {
-		timeBeforeConstruction = new Date();
-		fileString = new File("$IllegalName$");
-		timeAfterConstruction = new Date();
+		timeBeforeConstruction = System.currentTimeMillis();
+		fileString = new File("$IllegalName$","txt");
+		timeAfterConstruction = System.currentTimeMillis();
 		assertTrue(File.isValidName(fileString.getName()));
 		assertEquals(0,fileString.getSize());
 		assertTrue(fileString.isWritable());
-		assertNull(fileString.getModificationTime());
-		assertFalse(timeBeforeConstruction.after(fileString.getCreationTime()));
-		assertFalse(fileString.getCreationTime().after(timeAfterConstruction));
+		assertEquals(File.NOT_MODIFIED,fileString.getModificationTimeMillis());
+		assertTrue(timeBeforeConstruction <= fileString.getCreationTimeMillis());
+		assertTrue(fileString.getCreationTimeMillis() <= timeAfterConstruction);
 	}
 
 	@Test
@@ -92,14 +92,14 @@ public class FileTest {
 
 	@Test
 	public void testChangeName_LegalCase() throws NotWritableException{
-		Date timeBeforeSetName = new Date();
+		long timeBeforeSetName = System.currentTimeMillis();
 		fileString.changeName("NewLegalName");
-		Date timeAfterSetName = new Date();
+		long timeAfterSetName = System.currentTimeMillis();
 		
 		assertEquals("NewLegalName",fileString.getName());
-		assertNotNull(fileString.getModificationTime());
-		assertFalse(fileString.getModificationTime().before(timeBeforeSetName));
-		assertFalse(timeAfterSetName.before(fileString.getModificationTime()));
+		assertNotEquals(File.NOT_MODIFIED,fileString.getModificationTimeMillis());
+		assertTrue(fileString.getModificationTimeMillis() >= timeBeforeSetName);
+		assertTrue(timeAfterSetName >= fileString.getModificationTimeMillis());
 	}
 	
 	@Test (expected = NotWritableException.class)
@@ -110,8 +110,8 @@ public class FileTest {
 	@Test
 	public void testChangeName_IllegalName() throws NotWritableException{
 		fileString.changeName("$IllegalName$");
-		assertEquals("bestand.txt",fileString.getName());
-		assertNull(fileString.getModificationTime());
+		assertEquals("bestand",fileString.getName());
+		assertEquals(File.NOT_MODIFIED,fileString.getModificationTimeMillis());
 	}
 
 	@Test
@@ -131,14 +131,14 @@ public class FileTest {
 
 	@Test
 	public void testEnlarge_LegalCase() throws NotWritableException{
-		File file = new File("bestand.txt",File.getMaximumSize()-1,true);
-		Date timeBeforeEnlarge = new Date();
+		File file = new File("bestand",File.getMaximumSize()-1,true,"txt");
+		long timeBeforeEnlarge = System.currentTimeMillis();
 		file.enlarge(1);
-		Date timeAfterEnlarge = new Date();		
+		long timeAfterEnlarge = System.currentTimeMillis();		
 		assertEquals(file.getSize(),File.getMaximumSize());
-		assertNotNull(file.getModificationTime());
-		assertFalse(file.getModificationTime().before(timeBeforeEnlarge));
-		assertFalse(timeAfterEnlarge.before(file.getModificationTime()));  
+		assertNotEquals(File.NOT_MODIFIED,file.getModificationTimeMillis());
+		assertTrue(file.getModificationTimeMillis() >= timeBeforeEnlarge);
+		assertTrue(timeAfterEnlarge >= file.getModificationTimeMillis());  
 	}
 	
 	@Test (expected = NotWritableException.class)
@@ -149,11 +149,11 @@ public class FileTest {
 	@Test
 	public void testShorten_LegalCase() throws NotWritableException{
 		fileStringIntBoolean.shorten(1);
-		Date timeAfterShorten = new Date();		
+		long timeAfterShorten = System.currentTimeMillis();		
 		assertEquals(fileStringIntBoolean.getSize(),99);
-		assertNotNull(fileStringIntBoolean.getModificationTime());
-		assertFalse(fileStringIntBoolean.getModificationTime().before(timeAfterConstruction));
-		assertFalse(timeAfterShorten.before(fileStringIntBoolean.getModificationTime()));
+		assertNotEquals(File.NOT_MODIFIED,fileStringIntBoolean.getModificationTimeMillis());
+		assertTrue(fileStringIntBoolean.getModificationTimeMillis() >= timeAfterConstruction);
+		assertTrue(timeAfterShorten >= fileStringIntBoolean.getModificationTimeMillis());
 	}
 	
 	@Test (expected = NotWritableException.class)
@@ -182,16 +182,16 @@ public class FileTest {
 	
 	@Test
 	public void testcanHaveAsModificationTime_IllegalCase() {
-		assertFalse(fileString.canHaveAsModificationTime(new Date(timeAfterConstruction.getTime() - 1000*60*60)));
+		assertFalse(fileString.canHaveAsModificationTime(new Date(timeAfterConstruction - 1000*60*60)));
 		assertFalse(fileString.canHaveAsModificationTime(new Date(System.currentTimeMillis() + 1000*60*60)));
 	}
 
 	@Test
 	public void testHasOverlappingUsePeriod_UnmodifiedFiles() throws NotWritableException {
 		// one = implicit argument ; other = explicit argument
-		File one = new File("one");
-		sleep(); // sleep() to be sure that one.getCreationTime() != other.getCreationTime()
-		File other = new File("other");
+		File one = new File("one","txt");
+		sleep(); // sleep() to be sure that one.getCreationTimeMillis() != other.getCreationTimeMillis()
+		File other = new File("other","txt");
 		
 		//1 Test unmodified case
 		assertFalse(one.hasOverlappingUsePeriod(other));
@@ -202,7 +202,7 @@ public class FileTest {
 		
 		//3 Test other unmodified case
 		//so re-initialise the other file
-		other = new File("other");
+		other = new File("other","txt");
 		one.enlarge(File.getMaximumSize());
 		assertFalse(one.hasOverlappingUsePeriod(other));
 		
@@ -212,22 +212,24 @@ public class FileTest {
 	public void testHasOverlappingUsePeriod_ModifiedNoOverlap() throws NotWritableException {
 		// one = implicit argument ; other = explicit argument
 		File one, other;
-		one = new File("one");
-		sleep(); // sleep() to be sure that one.getCreationTime() != other.getCreationTime()
-		other = new File("other");
+		one = new File("one","txt");
+		sleep(); // sleep() to be sure that one.getCreationTimeMillis() != other.getCreationTimeMillis()
+		other = new File("other","txt");
 		
 		//1 Test one created and modified before other created and modified case
 		one.enlarge(File.getMaximumSize());
         sleep();
         //re-initialise the other
-        other = new File("other");
+        other = new File("other","txt");
         other.enlarge(File.getMaximumSize());
 	    assertFalse(one.hasOverlappingUsePeriod(other));
 	    
 	    //2 Test other created and modified before one created and modified
+		//so re-initialise the other file, it can not grow any further
+		other = new File("other","txt");
 		other.enlarge(File.getMaximumSize());
         sleep();
-        one = new File("one");
+        one = new File("one","txt");
         one.enlarge(File.getMaximumSize());
         assertFalse(one.hasOverlappingUsePeriod(other));
 	
@@ -238,9 +240,9 @@ public class FileTest {
 		// one = implicit argument ; other = explicit argument
 		//A Test one created before other created before one modified before other modified
 	    File one, other;
-		one = new File("one");
-		sleep(); // sleep() to be sure that one.getCreationTime() != other.getCreationTime()
-		other = new File("other");
+		one = new File("one","txt");
+		sleep(); // sleep() to be sure that one.getCreationTimeMillis() != other.getCreationTimeMillis()
+		other = new File("other","txt");
 	
 		one.enlarge(File.getMaximumSize());
         sleep();
@@ -253,9 +255,9 @@ public class FileTest {
 		// one = implicit argument ; other = explicit argument
 		//B Test one created before other created before other modified before one modified
        	File one, other;
-		one = new File("one");
-		sleep(); // sleep() to be sure that one.getCreationTime() != other.getCreationTime()
-		other = new File("other");
+		one = new File("one","txt");
+		sleep(); // sleep() to be sure that one.getCreationTimeMillis() != other.getCreationTimeMillis()
+		other = new File("other","txt");
 	
 		other.enlarge(File.getMaximumSize());
         sleep();
@@ -268,9 +270,9 @@ public class FileTest {
 		// one = implicit argument ; other = explicit argument
 		//C Test other created before one created before other modified before one modified
         File one, other;
-		other = new File("other");
-		sleep(); // sleep() to be sure that one.getCreationTime() != other.getCreationTime()
-		one = new File("one");
+		other = new File("other","txt");
+		sleep(); // sleep() to be sure that one.getCreationTimeMillis() != other.getCreationTimeMillis()
+		one = new File("one","txt");
 		
 		other.enlarge(File.getMaximumSize());
         sleep();
@@ -283,9 +285,9 @@ public class FileTest {
 		// one = implicit argument ; other = explicit argument
 		//D Test other created before one created before one modified before other modified
 		File one, other;
-		other = new File("one");
-		sleep(); // sleep() to be sure that one.getCreationTime() != other.getCreationTime()
-		one = new File("other");
+		other = new File("one","txt");
+		sleep(); // sleep() to be sure that one.getCreationTimeMillis() != other.getCreationTimeMillis()
+		one = new File("other","txt");
 	
 		one.enlarge(File.getMaximumSize());
         sleep();
@@ -0,0 +1,114 @@
+package filesystem;
+import be.kuleuven.cs.som.annotate.*;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A class of file types. There is exactly one FileType object per name, so
+ * file types can be compared by reference. The types txt, pdf and java are
+ * always known; other types can be registered at runtime.
+ *
+ * @invar	Each file type must have a valid name.
+ * 			| isValidName(getName())
+ */
+public final class FileType {
+
+	/**
+	 * Variable referencing all known file types, keyed by their name.
+	 */
+	private static final ConcurrentHashMap<String, FileType> types = new ConcurrentHashMap<>();
+
+	/**
+	 * The type of text files.
+	 */
+	public static final FileType TXT = register("txt");
+
+	/**
+	 * The type of pdf files.
+	 */
+	public static final FileType PDF = register("pdf");
+
+	/**
+	 * The type of java source files.
+	 */
+	public static final FileType JAVA = register("java");
+
+	/**
+	 * Initialize a new file type with the given name.
+	 * 
+	 * @param	name
+	 * 			The name of the new file type.
+	 * @post	| new.getName() == name
+	 */
+	@Raw
+	private FileType(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Variable referencing the name of this file type.
+	 */
+	private final String name;
+
+	/**
+	 * Return the name of this file type.
+	 */
+	@Basic @Immutable
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Check whether the given name is a valid name for a file type.
+	 * 
+	 * @param	name
+	 * 			The name to check.
+	 * @return	True if and only if the given name is effective, not empty and
+	 * 			consists of lower case letters and digits only.
+	 * 			| result == (name != null) && name.matches("[a-z0-9]+")
+	 */
+	public static boolean isValidName(String name) {
+		if (name == null || name.isEmpty()) return false;
+		for (int i = 0; i < name.length(); i++) {
+			char c = name.charAt(i);
+			if (!((c >= 'a' && c <= 'z') || (c >= '0' && c <= '9'))) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Return the file type with the given name, if it is known.
+	 * 
+	 * @param	name
+	 * 			The name of the required file type.
+	 * @return	The known file type with the given name, or null if there is none.
+	 */
+	public static FileType get(String name) {
+		return (name == null) ? null : types.get(name);
+	}
+
+	/**
+	 * Make the file type with the given name known, and return it. Registering
+	 * a name that is already known returns the existing file type.
+	 * 
+	 * @param	name
+	 * 			The name of the file type.
+	 * @return	The file type with the given name.
+	 * 			| result.getName().equals(name) && get(name) == result
+	 * @throws	IllegalArgumentException
+	 * 			The given name is not a valid name for a file type.
+	 * 			| !isValidName(name)
+	 */
+	public static FileType register(String name) throws IllegalArgumentException {
+		if (!isValidName(name)) throw new IllegalArgumentException("Invalid name for a file type.");
+		return types.computeIfAbsent(name, FileType::new);
+	}
+
+	/**
+	 * Return the name of this file type.
+	 */
+	@Override
+	public String toString() {
+		return name;
+	}
+}
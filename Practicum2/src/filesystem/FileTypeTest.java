@@ -0,0 +1,45 @@
+package filesystem;
+import static org.junit.Assert.*;
+
+import org.junit.*;
+
+/**
+ * A JUnit test class for testing the public methods of the FileType Class
+ *
+ */
+public class FileTypeTest {
+
+	@Test
+	public void testGet_KnownTypes() {
+		assertSame(FileType.TXT, FileType.get("txt"));
+		assertSame(FileType.PDF, FileType.get("pdf"));
+		assertSame(FileType.JAVA, FileType.get("java"));
+	}
+
+	@Test
+	public void testGet_NoSubstringMatch() {
+		assertNull(FileType.get("t"));
+		assertNull(FileType.get("jav"));
+		assertNull(FileType.get(null));
+	}
+
+	@Test
+	public void testRegister() {
+		FileType log = FileType.register("log");
+		assertSame(log, FileType.get("log"));
+		assertSame(log, FileType.register("log"));
+		assertSame(log, new File("server", "log").getType());
+	}
+
+	@Test (expected = IllegalArgumentException.class)
+	public void testRegister_IllegalName() {
+		FileType.register("not a type");
+	}
+
+	@Test
+	public void testFileType_UnknownTypeDefaultsToTxt() {
+		assertSame(FileType.TXT, new File("bestand", "t").getType());
+		assertSame(FileType.PDF, new File("bestand", "pdf").getType());
+	}
+
+}
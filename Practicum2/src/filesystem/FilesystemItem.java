@@ -1,6 +1,9 @@
 package filesystem;
 
+import java.util.ArrayDeque;
 import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
 
 import be.kuleuven.cs.som.annotate.*;
 
@@ -48,7 +51,28 @@ public abstract class FilesystemItem {
      * 			|	(name != null) && name.matches("[a-zA-Z_0-9.-]+")
      */
     public static boolean isValidName(String name) {
-        return (name != null && name.matches("[a-zA-Z_0-9.-]+"));
+        if (name == null || name.isEmpty()) return false;
+        for (int i = 0; i < name.length(); i++) {
+        	char c = name.charAt(i);
+        	if (c >= validNameCharacters.length || !validNameCharacters[c]) return false;
+        }
+        return true;
+    }
+    
+    /**
+     * Lookup table registering, for every ASCII character, whether it may
+     * occur in a name. Used instead of a regular expression, so checking a
+     * name compiles no pattern and allocates nothing.
+     */
+    private static final boolean[] validNameCharacters = new boolean[128];
+    
+    static {
+    	for (char c = 'a'; c <= 'z'; c++) validNameCharacters[c] = true;
+    	for (char c = 'A'; c <= 'Z'; c++) validNameCharacters[c] = true;
+    	for (char c = '0'; c <= '9'; c++) validNameCharacters[c] = true;
+    	validNameCharacters['_'] = true;
+    	validNameCharacters['.'] = true;
+    	validNameCharacters['-'] = true;
     }
     
     /**
@@ -96,15 +120,47 @@ public abstract class FilesystemItem {
      * 			of this file is updated.
      *          | if (isValidName(name) && isWritable())
      *          | then setModificationTime()
+     * @effect  If the name is changed and this file resides in a directory, that
+     *          directory is updated to reflect the new name.
+     *          | if (isValidName(name) && isWritable() && !isRoot())
+     *          | then getDirectory().updateItemName(this, getName(), getDirectory().getIndexOf(this))
      * @throws  NotWritableException(this)
      *          This file is not writable
      *          | ! isWritable() 
+     * @throws  IllegalArgumentException
+     *          Another item with the given name already resides in the directory of this file
+     *          | !isRoot() && getDirectory().exists(name) && getDirectory().getItem(name) != this
      */
-    public void changeName(String name) throws NotWritableException {
+    public void changeName(String name) throws NotWritableException, IllegalArgumentException {
         if (isWritable()) {
             if (isValidName(name)){
-            	setName(name);
-                setModificationTime();
+            	List<Journal> journals = Journal.lock(this);
+            	try {
+            		Journal journal = Journal.of(this);
+            		String oldPath = (journal == null) ? null : getPath();
+            		while (true){
+            			Directory dir = getDirectory();
+            			if (dir != null) dir.lockForWriting();
+            			try {
+            				if (dir != getDirectory()) continue;
+            				if (dir != null && dir.exists(name) && dir.getItem(name) != this)
+            					throw new IllegalArgumentException("An item with the given name already exists in this directory.");
+            				if (dir != null) dir.invalidatePathsOf(this);
+            				String oldName = getName();
+            				int oldIndex = (dir != null) ? dir.getIndexOf(this) : 0;
+            				setName(name);
+            				if (this instanceof Directory) getRoot().advancePathGeneration();
+            				if (dir != null) dir.updateItemName(this, oldName, oldIndex);
+            				setModificationTime();
+            				Journal.recordRename(journal, oldPath, name);
+            				return;
+            			} finally {
+            				if (dir != null) dir.unlockForWriting();
+            			}
+            		}
+            	} finally {
+            		Journal.unlock(journals);
+            	}
             }
         } else {
             throw new NotWritableException(this);
@@ -140,7 +196,13 @@ public abstract class FilesystemItem {
      */
     @Raw 
     public void setWritable(boolean isWritable) {
-        this.isWritable = isWritable;
+        List<Journal> journals = Journal.lock(this);
+        try {
+            this.isWritable = isWritable;
+            Journal.recordSetWritable(Journal.of(this), this);
+        } finally {
+            Journal.unlock(journals);
+        }
     }
 
 
@@ -149,19 +211,45 @@ public abstract class FilesystemItem {
      **********************************************************/
 
     /**
-     * Variable referencing the time of the last modification,
-     * possibly null.
+     * Value of the modification time of a file that has not been modified yet.
+     */
+    public static final long NOT_MODIFIED = Long.MIN_VALUE;
+
+    /**
+     * Return the current time in milliseconds since the epoch. All creation and
+     * modification times are read from this clock.
+     */
+    static long getCurrentTime() {
+    	return System.currentTimeMillis();
+    }
+
+    /**
+     * Variable registering the time of the last modification, in milliseconds
+     * since the epoch, or NOT_MODIFIED.
      */
-    private Date modificationTime = null;
+    private volatile long modificationTime = NOT_MODIFIED;
+   
+    /**
+     * Return the time at which this file was last modified, that is
+     * at which the name or size was last changed, in milliseconds since the epoch.
+     * If this file has not yet been modified after construction, NOT_MODIFIED is returned.
+     */
+    @Raw @Basic
+    public long getModificationTimeMillis() {
+        return modificationTime;
+    }
    
     /**
      * Return the time at which this file was last modified, that is
      * at which the name or size was last changed. If this file has
      * not yet been modified after construction, null is returned.
+     * 
+     * @return	| if (getModificationTimeMillis() == NOT_MODIFIED) then result == null
+     * 			| else result.getTime() == getModificationTimeMillis()
      */
-    @Raw @Basic
+    @Raw
     public Date getModificationTime() {
-        return modificationTime;
+        return (modificationTime == NOT_MODIFIED) ? null : new Date(modificationTime);
     }
 
     /**
@@ -178,8 +266,8 @@ public abstract class FilesystemItem {
      */
     public boolean canHaveAsModificationTime(Date date) {
         return (date == null) ||
-               ( (date.getTime() >= getCreationTime().getTime()) &&
-                 (date.getTime() <= System.currentTimeMillis()) );
+               ( (date.getTime() >= getCreationTimeMillis()) &&
+                 (date.getTime() <= getCurrentTime()) );
     }
 
     /**
@@ -197,9 +285,21 @@ public abstract class FilesystemItem {
      */
     @Model
 	protected void setModificationTime() {
-        modificationTime = new Date();
+        long now = getCurrentTime();
+        long current = modificationTime;
+        while (current < now && !modificationTimeUpdater.compareAndSet(this, current, now)) {
+        	current = modificationTime;
+        }
     }
 
+    /**
+     * Updater used to set the modification time without locking. The time only
+     * moves forward, and is written at most once per clock tick when many threads
+     * modify this file at the same time.
+     */
+    private static final AtomicLongFieldUpdater<FilesystemItem> modificationTimeUpdater =
+    		AtomicLongFieldUpdater.newUpdater(FilesystemItem.class, "modificationTime");
+
     /**
      * Return whether this file and the given other file have an
      * overlapping use period.
@@ -224,11 +324,11 @@ public abstract class FilesystemItem {
      */
     public boolean hasOverlappingUsePeriod(FilesystemItem other) {
         if (other == null) return false;
-        if(getModificationTime() == null || other.getModificationTime() == null) return false;
-        return ! (getCreationTime().before(other.getCreationTime()) && 
-        	      getModificationTime().before(other.getCreationTime()) ) &&
-        	   ! (other.getCreationTime().before(getCreationTime()) && 
-        	      other.getModificationTime().before(getCreationTime()) );
+        if(getModificationTimeMillis() == NOT_MODIFIED || other.getModificationTimeMillis() == NOT_MODIFIED) return false;
+        return ! (getCreationTimeMillis() < other.getCreationTimeMillis() && 
+        	      getModificationTimeMillis() < other.getCreationTimeMillis() ) &&
+        	   ! (other.getCreationTimeMillis() < getCreationTimeMillis() && 
+        	      other.getModificationTimeMillis() < getCreationTimeMillis() );
     }
     
     /**********************************************************
@@ -236,17 +336,28 @@ public abstract class FilesystemItem {
      **********************************************************/
 
     /**
-     * Variable referencing the time of creation.
+     * Variable registering the time of creation, in milliseconds since the epoch.
+     * Only set anew when the item is loaded from a snapshot.
      */
-    private final Date creationTime = new Date();
+    private long creationTime = getCurrentTime();
    
     /**
-     * Return the time at which this file was created.
+     * Return the time at which this file was created, in milliseconds since the epoch.
      */
     @Raw @Basic @Immutable
-    public Date getCreationTime() {
+    public long getCreationTimeMillis() {
         return creationTime;
     }
+   
+    /**
+     * Return the time at which this file was created.
+     * 
+     * @return	| result.getTime() == getCreationTimeMillis()
+     */
+    @Raw @Immutable
+    public Date getCreationTime() {
+        return new Date(creationTime);
+    }
 
     /**
      * Check whether the given date is a valid creation time.
@@ -261,18 +372,55 @@ public abstract class FilesystemItem {
      */
     public static boolean isValidCreationTime(Date date) {
     	return 	(date!=null) &&
-    			(date.getTime()<=System.currentTimeMillis());
+    			(date.getTime()<=getCurrentTime());
+    }
+
+    /**
+     * Set the creation and modification time of this item to the given times, as
+     * they were saved in a snapshot. Only used while the item is being loaded.
+     * 
+     * @param	creationTime
+     * 			The time of creation, in milliseconds since the epoch.
+     * @param	modificationTime
+     * 			The time of the last modification, or NOT_MODIFIED.
+     * @post	| new.getCreationTimeMillis() == creationTime
+     * @post	| new.getModificationTimeMillis() == modificationTime
+     */
+    @Raw
+    void restoreTimes(long creationTime, long modificationTime) {
+    	this.creationTime = creationTime;
+    	this.modificationTime = modificationTime;
     }
 
     /**********************************************************
      * Directory Containment
      **********************************************************/
     
-    private Directory directory = null;
+    private volatile Directory directory = null;
     
+    /**
+     * Set the directory of this item to the given directory. If this item is a
+     * directory, the structure epoch of the tree it leaves is advanced before and
+     * after the change, so the positions that were computed below it are rebuilt
+     * when they are next asked for, and the tree it ends up in is shared if the
+     * tree it leaves was.
+     * 
+     * @param	dir
+     * 			The new directory of this item, null for a root item.
+     * @post	| new.getDirectory() == dir
+     */
     @Basic @Raw
-	private void setDirectory(Directory dir){
-		this.directory = dir;
+	void setDirectory(Directory dir){
+		if (this instanceof Directory){
+			Directory oldRoot = getRoot();
+			oldRoot.advanceStructureEpoch();
+			this.directory = dir;
+			oldRoot.advanceStructureEpoch();
+			oldRoot.advancePathGeneration();
+			((dir == null) ? (Directory) this : dir).inheritSharedTree(oldRoot);
+		} else {
+			this.directory = dir;
+		}
 	}
     
     @Basic
@@ -284,29 +432,273 @@ public abstract class FilesystemItem {
     	return dir.canBeAddedToDirectory(this) && dir != null && dir.isWritable();
     }
     
+    /**
+     * Return the number of directories above this item; 0 for a root item.
+     * 
+     * @return	| if (isRoot()) then result == 0
+     * 			| else result == getDirectory().getDepth() + 1
+     */
+    @Raw
+    public int getDepth(){
+    	return isRoot() ? 0 : getPosition().depth;
+    }
+    
+    /**
+     * The depth and the root of an item, with what they were computed from.
+     */
+    private static final class Position {
+    	
+    	private final Directory directory;
+    	private final int depth;
+    	private final Directory root;
+    	private final long epoch;
+    	
+    	private Position(Directory directory, int depth, Directory root, long epoch){
+    		this.directory = directory;
+    		this.depth = depth;
+    		this.root = root;
+    		this.epoch = epoch;
+    	}
+    	
+    	/**
+    	 * Check whether this is still the position of the given item: the item is in
+    	 * the same directory, and no directory was moved in the tree since.
+    	 */
+    	private boolean isValidFor(FilesystemItem item){
+    		return this.directory == item.getDirectory() && this.root.getStructureEpoch() == epoch;
+    	}
+    }
+    
+    /**
+     * Position of an item that turned out to be a root file while it was computed.
+     */
+    private static final Position ROOT_FILE = new Position(null, 0, null, 0);
+    
+    /**
+     * Variable referencing the position that was last computed for this item, possibly null.
+     */
+    private volatile Position position = null;
+    
+    /**
+     * Return the position of this item, which is not a root. A kept position is used
+     * as long as it is valid. Otherwise the directories above this item are walked up
+     * to the first one whose position is still valid, or to the root, and the
+     * positions on the way down are computed and kept. Moving a directory so costs
+     * O(1), and every position is rebuilt at most once after a move.
+     * 
+     * The epoch of the root is read before and after the walk. Positions are only
+     * kept if it did not change and no move was going on, so a position that was
+     * computed from a tree in the middle of a move is never kept.
+     */
+    private Position getPosition(){
+    	Position known = position;
+    	if (known != null && known.isValidFor(this)) return known;
+    	Directory root = findRoot();
+    	if (root == null) return ROOT_FILE;
+    	long epoch = root.getStructureEpoch();
+    	ArrayDeque<FilesystemItem> stale = new ArrayDeque<>();
+    	FilesystemItem item = this;
+    	Position result;
+    	while (true){
+    		Directory parent = item.getDirectory();
+    		if (parent == null){
+    			if (!(item instanceof Directory)) return ROOT_FILE;
+    			root = (Directory) item;
+    			result = new Position(null, 0, root, epoch);
+    			break;
+    		}
+    		known = item.position;
+    		if (known != null && known.root == root && known.epoch == epoch && known.directory == parent){
+    			result = known;
+    			break;
+    		}
+    		stale.push(item);
+    		item = parent;
+    	}
+    	boolean keep = (epoch & 1) == 0 && root.getStructureEpoch() == epoch;
+    	while (!stale.isEmpty()){
+    		FilesystemItem below = stale.pop();
+    		result = new Position((Directory) item, result.depth + 1, root, epoch);
+    		if (keep) below.position = result;
+    		item = below;
+    	}
+    	return result;
+    }
+    
+    /**
+     * Return the root of the tree of this item, which is not a root, as far as it
+     * can be told from the kept positions of this item and the directories above it.
+     */
+    private Directory findRoot(){
+    	FilesystemItem item = this;
+    	while (true){
+    		Directory parent = item.getDirectory();
+    		if (parent == null) return (item instanceof Directory) ? (Directory) item : null;
+    		Position known = item.position;
+    		if (known != null && known.isValidFor(item)) return known.root;
+    		item = parent;
+    	}
+    }
+    
+    /**
+     * Place this item in the given directory while a tree is loaded from a snapshot,
+     * without adding it to the contents of that directory. This item can not have
+     * any items yet.
+     * 
+     * @param	dir
+     * 			The directory this item is loaded into.
+     * @post	| new.getDirectory() == dir
+     */
+    @Raw
+    void restorePosition(Directory dir){
+    	this.directory = dir;
+    	if (this instanceof Directory) dir.inheritSharedTree((Directory) this);
+    }
+    
+    /**
+     * Return the path of this item from the root of its tree.
+     * 
+     * @return	| result.equals(getAbsolutePath())
+     */
+    public String getPath(){
+    	return getAbsolutePath();
+    }
+    
+    /**
+     * Return the path of this item from the root of its tree: the names of all
+     * directories between the root and this item, and the name of this item,
+     * each preceded by a slash. The path of a root item is "/".
+     * 
+     * Paths are kept as shared prefixes: every item keeps the name of the item
+     * together with the kept path of its directory, so a directory's path is kept
+     * once for all items below it and the memory does not grow with the depth of
+     * the items. A missing path is added on the kept path of the nearest directory
+     * above this item that has one. A kept path is used as long as the name, the
+     * directory and the root of this item are the same, and no directory in the
+     * tree of that root was renamed or moved since it was made. The string itself
+     * is built from the kept path on every call, in a single pass into an array
+     * of the exact length.
+     * 
+     * @return	| if (isRoot()) then result.equals("/")
+     * 			| else if (getDirectory().isRoot()) then result.equals("/" + getName())
+     * 			| else result.equals(getDirectory().getAbsolutePath() + "/" + getName())
+     */
+    public String getAbsolutePath(){
+    	Directory root = getRoot();
+    	long generation = (root == null) ? 0 : root.getPathGeneration();
+    	AbsolutePath cached = absolutePath;
+    	if (cached == null || !cached.isValidFor(this, root, generation)) cached = buildAbsolutePath(root, generation);
+    	return cached.toString();
+    }
+    
+    /**
+     * Make and keep the missing paths of this item and of the directories above it,
+     * in the tree of the given root and the given path generation of that root.
+     */
+    private AbsolutePath buildAbsolutePath(Directory root, long generation){
+    	ArrayDeque<FilesystemItem> stale = new ArrayDeque<>();
+    	FilesystemItem item = this;
+    	AbsolutePath path;
+    	while (true){
+    		path = item.absolutePath;
+    		if (path != null && path.isValidFor(item, root, generation)) break;
+    		if (item.isRoot()){
+    			path = new AbsolutePath(null, item, root, generation);
+    			item.absolutePath = path;
+    			break;
+    		}
+    		stale.push(item);
+    		item = item.getDirectory();
+    	}
+    	while (!stale.isEmpty()){
+    		item = stale.pop();
+    		path = new AbsolutePath(path, item, root, generation);
+    		item.absolutePath = path;
+    	}
+    	return path;
+    }
+    
+    /**
+     * A path kept for an item: the kept path of its directory and its name, with
+     * what it was made from.
+     */
+    private static final class AbsolutePath {
+    	
+    	private final AbsolutePath parent;
+    	private final String name;
+    	private final int length;
+    	private final Directory directory;
+    	private final Directory root;
+    	private final long generation;
+    	
+    	private AbsolutePath(AbsolutePath parent, FilesystemItem item, Directory root, long generation){
+    		this.parent = parent;
+    		this.name = item.getName();
+    		if (parent == null) this.length = 1;
+    		else this.length = ((parent.parent == null) ? 0 : parent.length) + 1 + name.length();
+    		this.directory = item.getDirectory();
+    		this.root = root;
+    		this.generation = generation;
+    	}
+    	
+    	/**
+    	 * Check whether this path is still the path of the given item, in the tree
+    	 * of the given root and the given path generation of that root.
+    	 */
+    	private boolean isValidFor(FilesystemItem item, Directory root, long generation){
+    		return this.root == root && this.generation == generation
+    				&& this.name == item.getName() && this.directory == item.getDirectory();
+    	}
+    	
+    	/**
+    	 * Return this path as a string, filled in from the last name to the first.
+    	 */
+    	@Override
+    	public String toString(){
+    		if (parent == null) return "/";
+    		char[] chars = new char[length];
+    		int end = length;
+    		for (AbsolutePath path = this; path.parent != null; path = path.parent){
+    			end -= path.name.length();
+    			path.name.getChars(0, path.name.length(), chars, end);
+    			chars[--end] = '/';
+    		}
+    		return new String(chars);
+    	}
+    }
+    
+    /**
+     * Variable referencing the path that was last built for this item, possibly null.
+     */
+    private volatile AbsolutePath absolutePath = null;
+    
     public boolean isRoot(){
     	return directory == null;
     }
     
     public void makeRoot() throws NotWritableException{
-		if (!isRoot()){
-			if (directory.isWritable()){
-				if (directory.hasAsItem(this)){
-					directory.removeItem(this);
-				}
-				setDirectory(null);
+    	Directory dir = getDirectory();
+		if (dir != null){
+			if (dir.isWritable()){
+				dir.removeItem(this);
 			}
 			else{
-				throw new NotWritableException(directory);
+				throw new NotWritableException(dir);
 			}
 		}
 	}
     
+    /**
+     * Return the root directory of the tree this item is part of. The root is
+     * kept with the depth of this item, so normally no parents are walked here.
+     * 
+     * @return	This item if it is a root directory, null if it is a root file,
+     * 			otherwise the root of its directory.
+     * 			| if (isRoot()) then result == (this instanceof Directory ? this : null)
+     * 			| else result == getDirectory().getRoot()
+     */
     public Directory getRoot(){
-    	Directory parent = this.getDirectory();
-    	while(parent.getDirectory() != null){
-    		parent = parent.getDirectory();
-    	}
-    	return parent;
+    	if (isRoot()) return (this instanceof Directory) ? (Directory) this : null;
+    	return getPosition().root;
     }
 }
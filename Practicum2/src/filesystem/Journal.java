@@ -0,0 +1,941 @@
+package filesystem;
+import be.kuleuven.cs.som.annotate.*;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * A write-ahead journal of all changes to one tree, so that the tree can be
+ * rebuilt after a crash.
+ *
+ * A journal file starts with a snapshot of the tree, followed by one record for
+ * every change made since: items that are created in, moved within, added to or
+ * removed from the tree, renamed, made writable or not, resized, or given other
+ * quotas. Items are named by their path. Every record is framed by its length
+ * and a CRC32, so a record that was only partly written when the process died
+ * is recognised and dropped when the journal is recovered.
+ *
+ * Records are appended to a buffer in memory while the change is made, which
+ * takes microseconds. A background thread writes the buffer to the file and
+ * forces it to disk every commit interval, so all changes made during one
+ * interval share a single fsync. A crash loses at most the changes of the last
+ * interval; sync() forces all changes made so far. When the file grows beyond
+ * the compaction threshold, it is replaced by a new file with a fresh snapshot
+ * of the tree and no records, in one atomic rename.
+ *
+ * While a tree has a journal, all changes to it are made one at a time, in the
+ * order of their records. Reading the tree is not affected. A journal should be
+ * created or recovered while no other thread uses the tree, and must be closed
+ * before its root is added to another directory.
+ */
+public final class Journal implements Closeable {
+
+	/**
+	 * The first four bytes of every journal: "FSJN".
+	 */
+	static final int MAGIC = 0x46534a4e;
+
+	/**
+	 * The version of the journal format written by this class.
+	 */
+	public static final int VERSION = 1;
+
+	/**
+	 * Default time between two commits, in milliseconds.
+	 */
+	public static final long DEFAULT_COMMIT_INTERVAL = 2;
+
+	/**
+	 * Default size of the journal file beyond which it is compacted, in bytes.
+	 */
+	public static final long DEFAULT_COMPACTION_THRESHOLD = 64L << 20;
+
+	/**
+	 * Size of the header: the magic number, the version and the length of the snapshot.
+	 */
+	private static final int HEADER_SIZE = 13;
+
+	/**
+	 * The largest record that is accepted when a journal is recovered.
+	 */
+	private static final int MAX_RECORD_SIZE = 1 << 24;
+
+	private static final int CREATE_FILE = 1;
+	private static final int CREATE_DIRECTORY = 2;
+	private static final int MOVE = 3;
+	private static final int REMOVE = 4;
+	private static final int RENAME = 5;
+	private static final int SET_WRITABLE = 6;
+	private static final int RESIZE = 7;
+	private static final int SET_QUOTAS = 8;
+
+	/**
+	 * Initialise a new journal for the tree of the given root, appending to the given channel.
+	 */
+	private Journal(Path file, FileChannel channel, Directory root, long commitInterval, long compactionThreshold) throws IOException {
+		this.file = file;
+		this.channel = channel;
+		this.size = channel.size();
+		this.root = root;
+		this.commitInterval = commitInterval;
+		this.compactionThreshold = compactionThreshold;
+		this.committer = new Thread(this::commitPeriodically, "journal " + file.getFileName());
+		this.committer.setDaemon(true);
+	}
+
+	/**
+	 * Create a new journal in the given file for the tree of the given root directory,
+	 * with the default commit interval and compaction threshold. An existing file is replaced.
+	 *
+	 * @param	file
+	 * 			The file to write the journal to.
+	 * @param	root
+	 * 			The root directory of the tree whose changes are written to the journal.
+	 * @return	| result.getRoot() == root && root.getJournal() == result
+	 * @throws	IllegalArgumentException
+	 * 			The given directory is not a root, or already has a journal.
+	 * @throws	IOException
+	 * 			The journal could not be written.
+	 */
+	public static Journal create(Path file, Directory root) throws IllegalArgumentException, IOException {
+		return create(file, root, DEFAULT_COMMIT_INTERVAL, DEFAULT_COMPACTION_THRESHOLD);
+	}
+
+	/**
+	 * Create a new journal in the given file for the tree of the given root directory.
+	 * An existing file is replaced.
+	 *
+	 * @param	file
+	 * 			The file to write the journal to.
+	 * @param	root
+	 * 			The root directory of the tree whose changes are written to the journal.
+	 * @param	commitInterval
+	 * 			The time between two commits, in milliseconds.
+	 * @param	compactionThreshold
+	 * 			The size of the journal file beyond which it is compacted, in bytes.
+	 * @return	| result.getRoot() == root && root.getJournal() == result
+	 * @throws	IllegalArgumentException
+	 * 			The given directory is not a root, or already has a journal, or the
+	 * 			commit interval is not positive.
+	 * @throws	IOException
+	 * 			The journal could not be written.
+	 */
+	public static Journal create(Path file, Directory root, long commitInterval, long compactionThreshold)
+			throws IllegalArgumentException, IOException {
+		if (root == null || !root.isRoot() || root.getJournal() != null)
+			throw new IllegalArgumentException("Only a root without a journal can be given a journal.");
+		if (commitInterval <= 0) throw new IllegalArgumentException("The commit interval must be positive.");
+		FileChannel channel = writeSnapshot(file, copySnapshot(root));
+		try {
+			syncDirectoryOf(file);
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+		Journal journal = new Journal(file, channel, root, commitInterval, compactionThreshold);
+		journal.attach();
+		return journal;
+	}
+
+	/**
+	 * Rebuild the tree in the given journal file, with the default commit interval and
+	 * compaction threshold, and go on writing its changes to that journal.
+	 *
+	 * @param	file
+	 * 			The journal file to recover.
+	 * @return	The journal of the rebuilt tree.
+	 * @throws	IOException
+	 * 			The journal could not be read, or a complete record in it can not be replayed.
+	 */
+	public static Journal recover(Path file) throws IOException {
+		return recover(file, DEFAULT_COMMIT_INTERVAL, DEFAULT_COMPACTION_THRESHOLD);
+	}
+
+	/**
+	 * Rebuild the tree in the given journal file and go on writing its changes to that
+	 * journal. The tree is loaded from the snapshot at the start of the file, and every
+	 * complete record is replayed on it. A last record that is incomplete or damaged is
+	 * cut off the file.
+	 *
+	 * @param	file
+	 * 			The journal file to recover.
+	 * @param	commitInterval
+	 * 			The time between two commits, in milliseconds.
+	 * @param	compactionThreshold
+	 * 			The size of the journal file beyond which it is compacted, in bytes.
+	 * @return	The journal of the rebuilt tree.
+	 * 			| result.getRoot().getJournal() == result
+	 * @throws	IllegalArgumentException
+	 * 			| commitInterval <= 0
+	 * @throws	IOException
+	 * 			The journal could not be read, or a complete record in it can not be replayed.
+	 */
+	public static Journal recover(Path file, long commitInterval, long compactionThreshold) throws IOException {
+		if (commitInterval <= 0) throw new IllegalArgumentException("The commit interval must be positive.");
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		try {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			while (header.hasRemaining()) {
+				if (channel.read(header) < 0) throw new EOFException("The journal has no header.");
+			}
+			header.flip();
+			if (header.getInt() != MAGIC) throw new StreamCorruptedException("Not a filesystem journal.");
+			int version = header.get();
+			if (version != VERSION) throw new StreamCorruptedException("Unknown journal version " + version + ".");
+			long snapshotLength = header.getLong();
+			Directory root = Snapshot.load(new Limited(channel, snapshotLength));
+			long end = replay(root, channel, HEADER_SIZE + snapshotLength);
+			channel.truncate(end);
+			channel.force(false);
+			channel.position(end);
+			Journal journal = new Journal(file, channel, root, commitInterval, compactionThreshold);
+			journal.attach();
+			return journal;
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Variable referencing the journal file.
+	 */
+	private final Path file;
+
+	/**
+	 * Channel appending to the journal file, or null once this journal is closed.
+	 * Only used while flushLock is held.
+	 */
+	private FileChannel channel;
+
+	/**
+	 * Variable registering the size of the journal file.
+	 */
+	private volatile long size;
+
+	/**
+	 * Variable referencing the root of the tree whose changes are journaled.
+	 */
+	private final Directory root;
+
+	private final long commitInterval;
+
+	private final long compactionThreshold;
+
+	/**
+	 * Thread writing and forcing the records to the file every commit interval.
+	 */
+	private final Thread committer;
+
+	/**
+	 * Lock held while the tree is changed and the change is recorded, so changes
+	 * and records are in the same order.
+	 */
+	private final ReentrantLock lock = new ReentrantLock();
+
+	/**
+	 * Lock held while records are written to the file, or the file is replaced.
+	 * It is always taken before the lock.
+	 */
+	private final Object flushLock = new Object();
+
+	/**
+	 * Records that were not written to the file yet. Only used while the lock is held.
+	 */
+	private ByteBuffer pending = ByteBuffer.allocate(1 << 16);
+
+	/**
+	 * Buffer that takes the place of the pending buffer when that one is written.
+	 * Only used while flushLock is held.
+	 */
+	private ByteBuffer spare = ByteBuffer.allocate(1 << 16);
+
+	/**
+	 * Position of the record being appended in the pending buffer.
+	 */
+	private int recordStart;
+
+	private final CRC32 checksum = new CRC32();
+
+	/**
+	 * The error that stopped this journal, or null.
+	 */
+	private volatile IOException failure = null;
+
+	private volatile boolean closed = false;
+
+	/**
+	 * Place of this journal in the global order in which journals are locked.
+	 */
+	private final long order = nextOrder.getAndIncrement();
+
+	private static final AtomicLong nextOrder = new AtomicLong();
+
+	/**
+	 * Number of open journals, so changes to trees take no journal locks while there are none.
+	 */
+	private static final AtomicInteger nbOpen = new AtomicInteger();
+
+	/**
+	 * Return the root of the tree whose changes are written to this journal.
+	 */
+	@Basic @Immutable
+	public Directory getRoot() {
+		return root;
+	}
+
+	/**
+	 * Return the size of the journal file, in bytes.
+	 */
+	public long getSize() {
+		return size;
+	}
+
+	/**
+	 * Write all changes made so far to the journal file and force them to disk.
+	 *
+	 * @throws	IOException
+	 * 			The changes could not be written, now or at an earlier commit.
+	 */
+	public void sync() throws IOException {
+		checkFailure();
+		flush();
+	}
+
+	/**
+	 * Replace the journal file by a new one with a snapshot of the tree as it is now,
+	 * and no records. The new file is written next to the old one, forced to disk and
+	 * then renamed over it, so a crash at any moment leaves one complete journal.
+	 *
+	 * The tree is only locked while it is copied to memory in the snapshot format.
+	 * Changes made while the copy is written to disk are kept in the pending records,
+	 * and go to the new file once it has replaced the old one.
+	 *
+	 * @throws	IOException
+	 * 			The new journal could not be written; the old one is still used.
+	 */
+	public void compact() throws IOException {
+		checkFailure();
+		synchronized (flushLock) {
+			if (channel == null) throw new IOException("The journal is closed.");
+			ByteBuffer snapshot;
+			int covered;
+			lock.lock();
+			try {
+				snapshot = copySnapshot(root);
+				covered = pending.position();
+			} finally {
+				lock.unlock();
+			}
+			FileChannel compacted = writeSnapshot(file, snapshot);
+			FileChannel old;
+			lock.lock();
+			try {
+				old = channel;
+				channel = compacted;
+				size = compacted.size();
+				pending.flip();
+				pending.position(covered);
+				pending.compact();
+			} finally {
+				lock.unlock();
+			}
+			old.close();
+			syncDirectoryOf(file);
+		}
+	}
+
+	/**
+	 * Write all changes made so far, stop journaling the tree and close the journal file.
+	 *
+	 * @post	| getRoot().getJournal() == null
+	 * @throws	IOException
+	 * 			The last changes could not be written.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (closed) return;
+		closed = true;
+		LockSupport.unpark(committer);
+		lock.lock();
+		try {
+			root.setJournal(null);
+		} finally {
+			lock.unlock();
+		}
+		nbOpen.decrementAndGet();
+		try {
+			if (failure == null) flush();
+		} finally {
+			synchronized (flushLock) {
+				channel.close();
+				channel = null;
+			}
+		}
+		checkFailure();
+	}
+
+	/**
+	 * Start journaling the changes to the tree of the root of this journal.
+	 */
+	private void attach() {
+		nbOpen.incrementAndGet();
+		root.setJournal(this);
+		committer.start();
+	}
+
+	private void checkFailure() throws IOException {
+		if (failure != null) throw new IOException("The journal stopped after an error.", failure);
+	}
+
+	/**
+	 * Write the pending records and compact the journal when needed, every commit
+	 * interval, until this journal is closed or fails.
+	 */
+	private void commitPeriodically() {
+		while (!closed) {
+			LockSupport.parkNanos(commitInterval * 1000000L);
+			try {
+				flush();
+				if (size > compactionThreshold && !closed) compact();
+			} catch (IOException e) {
+				failure = e;
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Write the pending records to the journal file and force them to disk.
+	 * Records appended while this happens are written at the next flush.
+	 */
+	private void flush() throws IOException {
+		synchronized (flushLock) {
+			if (channel == null) return;
+			ByteBuffer full;
+			lock.lock();
+			try {
+				if (pending.position() == 0) return;
+				full = pending;
+				pending = spare;
+			} finally {
+				lock.unlock();
+			}
+			full.flip();
+			size += full.remaining();
+			while (full.hasRemaining()) channel.write(full);
+			channel.force(false);
+			full.clear();
+			spare = full;
+		}
+	}
+
+	/**
+	 * Return the snapshot of the tree of the given root, as it is saved by Snapshot.
+	 */
+	private static ByteBuffer copySnapshot(Directory root) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(1 << 16);
+		Snapshot.save(root, Channels.newChannel(bytes));
+		return ByteBuffer.wrap(bytes.toByteArray());
+	}
+
+	/**
+	 * Write a new journal file with the given snapshot and no records, and return a
+	 * channel appending to it. The file is written and forced under a temporary
+	 * name, and then renamed to the given file.
+	 */
+	private static FileChannel writeSnapshot(Path file, ByteBuffer snapshot) throws IOException {
+		Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+		FileChannel out = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+		try {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			header.putInt(MAGIC).put((byte) VERSION).putLong(snapshot.remaining()).flip();
+			while (header.hasRemaining()) out.write(header);
+			while (snapshot.hasRemaining()) out.write(snapshot);
+			out.force(true);
+			Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			return out;
+		} catch (IOException | RuntimeException e) {
+			out.close();
+			Files.deleteIfExists(temporary);
+			throw e;
+		}
+	}
+
+	/**
+	 * Force the directory of the given file to disk, so a rename to the file survives a
+	 * crash. This is skipped on platforms where a directory can not be opened, such as
+	 * Windows.
+	 */
+	private static void syncDirectoryOf(Path file) throws IOException {
+		Path directory = file.toAbsolutePath().getParent();
+		FileChannel channel;
+		try {
+			channel = FileChannel.open(directory, StandardOpenOption.READ);
+		} catch (IOException e) {
+			return;
+		}
+		try {
+			channel.force(true);
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**********************************************************
+	 * Locking the journals of a change
+	 **********************************************************/
+
+	/**
+	 * Return the journal of the tree of the given item, or null.
+	 */
+	static Journal of(FilesystemItem item) {
+		Directory itemRoot = item.getRoot();
+		return (itemRoot == null) ? null : itemRoot.getJournal();
+	}
+
+	/**
+	 * Lock the journal of the tree of the given item, which is about to be changed.
+	 * Journals are always locked in one global order, and the trees of the items
+	 * involved stay the same while their journals are locked.
+	 *
+	 * @throws	UncheckedIOException
+	 * 			One of the journals stopped after an error, so the change can not be made.
+	 */
+	static List<Journal> lock(FilesystemItem item) {
+		return lock(item, null);
+	}
+
+	/**
+	 * Lock the journals of the trees of the given items, the second of which may be null.
+	 *
+	 * @see		#lock(FilesystemItem)
+	 */
+	static List<Journal> lock(FilesystemItem first, FilesystemItem second) {
+		if (nbOpen.get() == 0) return Collections.emptyList();
+		ArrayList<FilesystemItem> items = new ArrayList<>(2);
+		items.add(first);
+		if (second != null) items.add(second);
+		return lock(items);
+	}
+
+	/**
+	 * Lock the journals of the trees of the given directory and items.
+	 *
+	 * @see		#lock(FilesystemItem)
+	 */
+	static List<Journal> lock(Directory dir, Collection<? extends FilesystemItem> items) {
+		if (nbOpen.get() == 0) return Collections.emptyList();
+		ArrayList<FilesystemItem> all = new ArrayList<>(items.size() + 1);
+		all.add(dir);
+		for (FilesystemItem item: items) if (item != null) all.add(item);
+		return lock(all);
+	}
+
+	private static List<Journal> lock(ArrayList<FilesystemItem> items) {
+		while (true) {
+			ArrayList<Journal> journals = new ArrayList<>();
+			for (FilesystemItem item: items) {
+				Journal journal = of(item);
+				if (journal != null && !journals.contains(journal)) journals.add(journal);
+			}
+			journals.sort((first, second) -> Long.compare(first.order, second.order));
+			for (Journal journal: journals) journal.lock.lock();
+			boolean same = true;
+			for (FilesystemItem item: items) {
+				Journal journal = of(item);
+				same &= journal == null || journals.contains(journal);
+			}
+			int nbStill = 0;
+			for (Journal journal: journals) if (journal.root.getJournal() == journal) nbStill++;
+			if (same && nbStill == journals.size()) {
+				for (Journal journal: journals) {
+					if (journal.failure != null) {
+						unlock(journals);
+						throw new UncheckedIOException(new IOException("The journal stopped after an error.", journal.failure));
+					}
+				}
+				return journals;
+			}
+			unlock(journals);
+		}
+	}
+
+	static void unlock(List<Journal> journals) {
+		for (int i = journals.size() - 1; i >= 0; i--) journals.get(i).lock.unlock();
+	}
+
+	/**********************************************************
+	 * Recording changes
+	 **********************************************************/
+
+	/**
+	 * Record that the given item was added to the given directory. Its journals before
+	 * and after the change are given, with its path before the change.
+	 */
+	static void recordAdd(Directory dir, FilesystemItem item, Journal target, Journal source, String oldPath) {
+		if (target != null) {
+			if (target == source) {
+				target.beginRecord(MOVE);
+				target.putString(oldPath);
+				target.putString(dir.getPath());
+				target.endRecord();
+			} else {
+				target.putCreate(item);
+				if (item instanceof Directory) Traversal.walk(Traversal.getContentsOf((Directory) item), target::putCreate);
+			}
+		}
+		if (source != null && source != target) recordRemove(source, oldPath);
+	}
+
+	/**
+	 * Record that the item at the given path was removed from its directory.
+	 */
+	static void recordRemove(Journal journal, String oldPath) {
+		if (journal == null) return;
+		journal.beginRecord(REMOVE);
+		journal.putString(oldPath);
+		journal.endRecord();
+	}
+
+	/**
+	 * Record that the item at the given path was given the given name.
+	 */
+	static void recordRename(Journal journal, String oldPath, String name) {
+		if (journal == null) return;
+		journal.beginRecord(RENAME);
+		journal.putString(oldPath);
+		journal.putString(name);
+		journal.endRecord();
+	}
+
+	/**
+	 * Record that the given item was made writable or not.
+	 */
+	static void recordSetWritable(Journal journal, FilesystemItem item) {
+		if (journal == null) return;
+		journal.beginRecord(SET_WRITABLE);
+		journal.putString(item.getPath());
+		journal.putVarint(item.isWritable() ? 1 : 0);
+		journal.endRecord();
+	}
+
+	/**
+	 * Record that the size of the given file was changed by the given delta.
+	 */
+	static void recordResize(Journal journal, File file, int delta) {
+		if (journal == null) return;
+		journal.beginRecord(RESIZE);
+		journal.putString(file.getPath());
+		journal.putZigzag(delta);
+		journal.endRecord();
+	}
+
+	/**
+	 * Record the quotas of the given directory.
+	 */
+	static void recordQuotas(Journal journal, Directory dir) {
+		if (journal == null) return;
+		journal.beginRecord(SET_QUOTAS);
+		journal.putString(dir.getPath());
+		journal.putVarint(dir.getByteQuota());
+		journal.putVarint(dir.getItemQuota());
+		journal.endRecord();
+	}
+
+	/**
+	 * Record that the given item, without its contents, was created in its directory.
+	 */
+	private void putCreate(FilesystemItem item) {
+		beginRecord((item instanceof Directory) ? CREATE_DIRECTORY : CREATE_FILE);
+		putString(item.getDirectory().getPath());
+		putString(item.getName());
+		putVarint(item.isWritable() ? 1 : 0);
+		putZigzag(item.getCreationTimeMillis());
+		putZigzag(item.getModificationTimeMillis());
+		if (item instanceof Directory) {
+			Directory dir = (Directory) item;
+			putVarint(dir.isConcurrent() ? 1 : 0);
+			putVarint(dir.getByteQuota());
+			putVarint(dir.getItemQuota());
+		} else {
+			putVarint(((File) item).getSize());
+			putString(((File) item).getType().getName());
+		}
+		endRecord();
+	}
+
+	private void beginRecord(int operation) {
+		ensure(16);
+		recordStart = pending.position();
+		pending.putInt(0);
+		pending.put((byte) operation);
+		putZigzag(FilesystemItem.getCurrentTime());
+	}
+
+	private void endRecord() {
+		int length = pending.position() - recordStart - 4;
+		pending.putInt(recordStart, length);
+		checksum.reset();
+		checksum.update(pending.array(), recordStart + 4, length);
+		ensure(4);
+		pending.putInt((int) checksum.getValue());
+	}
+
+	private void putString(String string) {
+		byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+		putVarint(bytes.length);
+		ensure(bytes.length);
+		pending.put(bytes);
+	}
+
+	private void putZigzag(long value) {
+		putVarint((value << 1) ^ (value >> 63));
+	}
+
+	private void putVarint(long value) {
+		ensure(10);
+		while ((value & ~0x7FL) != 0) {
+			pending.put((byte) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		pending.put((byte) value);
+	}
+
+	/**
+	 * Make room for the given number of bytes in the pending buffer.
+	 */
+	private void ensure(int room) {
+		if (pending.remaining() >= room) return;
+		ByteBuffer larger = ByteBuffer.allocate(Math.max(pending.capacity() * 2, pending.position() + room));
+		pending.flip();
+		larger.put(pending);
+		pending = larger;
+	}
+
+	/**********************************************************
+	 * Replay
+	 **********************************************************/
+
+	/**
+	 * Replay the records in the given channel, from the given position on, on the tree
+	 * of the given root, and return the position after the last complete record.
+	 */
+	private static long replay(Directory root, FileChannel channel, long position) throws IOException {
+		channel.position(position);
+		DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel), 1 << 16));
+		long end = position;
+		for (long number = 1; ; number++) {
+			int first = in.read();
+			if (first < 0) return end;
+			byte[] payload;
+			int storedChecksum;
+			try {
+				int length = (first << 24) | (in.readUnsignedByte() << 16) | (in.readUnsignedShort());
+				if (length <= 0 || length > MAX_RECORD_SIZE) return end;
+				payload = new byte[length];
+				in.readFully(payload);
+				storedChecksum = in.readInt();
+			} catch (EOFException e) {
+				return end;
+			}
+			CRC32 checksum = new CRC32();
+			checksum.update(payload, 0, payload.length);
+			if ((int) checksum.getValue() != storedChecksum) return end;
+			try {
+				apply(root, new Record(payload));
+			} catch (RuntimeException e) {
+				StreamCorruptedException error = new StreamCorruptedException("Record " + number + " can not be replayed.");
+				error.initCause(e);
+				throw error;
+			}
+			end += 8 + payload.length;
+		}
+	}
+
+	/**
+	 * Make the change of the given record to the tree of the given root. Created items
+	 * are placed without checking their directory, because a subtree is journaled with
+	 * the final writability and quotas of its directories ahead of their contents. Every
+	 * other change is made again as it was made before, against the same state.
+	 */
+	private static void apply(Directory root, Record record) throws IOException {
+		int operation = record.getByte();
+		long time = record.getZigzag();
+		switch (operation) {
+		case CREATE_FILE:
+		case CREATE_DIRECTORY: {
+			Directory dir = (Directory) root.resolve(record.getString());
+			String name = record.getString();
+			boolean writable = record.getVarint() != 0;
+			long creationTime = record.getZigzag();
+			long modificationTime = record.getZigzag();
+			FilesystemItem item;
+			if (operation == CREATE_DIRECTORY) {
+				Directory created = new Directory(null, name, writable, record.getVarint() != 0);
+				created.setByteQuota(record.getVarint());
+				created.setItemQuota(record.getVarint());
+				item = created;
+			} else {
+				long size = record.getVarint();
+				String type = record.getString();
+				FileType.register(type);
+				item = new File(null, name, (int) size, writable, type);
+			}
+			dir.restoreItem(item);
+			item.restoreTimes(creationTime, modificationTime);
+			touch(dir, time);
+			break;
+		}
+		case MOVE: {
+			FilesystemItem item = root.resolve(record.getString());
+			Directory source = item.getDirectory();
+			Directory target = (Directory) root.resolve(record.getString());
+			target.addItem(item);
+			touch(source, time);
+			touch(target, time);
+			break;
+		}
+		case REMOVE: {
+			FilesystemItem item = root.resolve(record.getString());
+			Directory dir = item.getDirectory();
+			dir.removeItem(item);
+			touch(dir, time);
+			break;
+		}
+		case RENAME: {
+			FilesystemItem item = root.resolve(record.getString());
+			item.changeName(record.getString());
+			touch(item, time);
+			break;
+		}
+		case SET_WRITABLE:
+			root.resolve(record.getString()).setWritable(record.getVarint() != 0);
+			break;
+		case RESIZE: {
+			File file = (File) root.resolve(record.getString());
+			long delta = record.getZigzag();
+			if (delta > 0) file.enlarge((int) delta);
+			else file.shorten((int) -delta);
+			touch(file, time);
+			break;
+		}
+		case SET_QUOTAS: {
+			Directory dir = (Directory) root.resolve(record.getString());
+			dir.setByteQuota(record.getVarint());
+			dir.setItemQuota(record.getVarint());
+			break;
+		}
+		default:
+			throw new StreamCorruptedException("Unknown operation " + operation + ".");
+		}
+	}
+
+	/**
+	 * Set the modification time of the given item to the given time of a record.
+	 */
+	private static void touch(FilesystemItem item, long time) {
+		if (item != null) item.restoreTimes(item.getCreationTimeMillis(), time);
+	}
+
+	/**
+	 * The fields of one record, read in order.
+	 */
+	private static final class Record {
+
+		Record(byte[] payload) {
+			this.buffer = ByteBuffer.wrap(payload);
+		}
+
+		private final ByteBuffer buffer;
+
+		int getByte() {
+			return buffer.get() & 0xFF;
+		}
+
+		long getVarint() throws StreamCorruptedException {
+			long value = 0;
+			for (int shift = 0; shift < 64; shift += 7) {
+				int b = getByte();
+				value |= (long) (b & 0x7F) << shift;
+				if ((b & 0x80) == 0) return value;
+			}
+			throw new StreamCorruptedException("Invalid varint.");
+		}
+
+		long getZigzag() throws StreamCorruptedException {
+			long value = getVarint();
+			return (value >>> 1) ^ -(value & 1);
+		}
+
+		String getString() throws StreamCorruptedException {
+			long length = getVarint();
+			if (length > buffer.remaining()) throw new StreamCorruptedException("Invalid string length.");
+			String string = new String(buffer.array(), buffer.position(), (int) length, StandardCharsets.UTF_8);
+			buffer.position(buffer.position() + (int) length);
+			return string;
+		}
+	}
+
+	/**
+	 * A channel reading at most a given number of bytes from another channel.
+	 */
+	private static final class Limited implements ReadableByteChannel {
+
+		Limited(ReadableByteChannel channel, long remaining) {
+			this.channel = channel;
+			this.remaining = remaining;
+		}
+
+		private final ReadableByteChannel channel;
+		private long remaining;
+
+		@Override
+		public int read(ByteBuffer target) throws IOException {
+			if (remaining == 0) return -1;
+			int limit = target.limit();
+			if (target.remaining() > remaining) target.limit(target.position() + (int) remaining);
+			try {
+				int read = channel.read(target);
+				if (read > 0) remaining -= read;
+				return read;
+			} finally {
+				target.limit(limit);
+			}
+		}
+
+		@Override
+		public boolean isOpen() {
+			return channel.isOpen();
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+}
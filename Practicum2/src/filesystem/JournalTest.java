@@ -0,0 +1,196 @@
+package filesystem;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import org.junit.*;
+
+/**
+ * A JUnit test class for journaling the changes to a tree and recovering it.
+ *
+ */
+public class JournalTest {
+
+	Directory root;
+	Directory subDirectory;
+	File fileInRoot;
+	Path file;
+	Journal journal;
+
+	@Before
+	public void setUpFixture() throws IOException{
+		root = new Directory("root");
+		subDirectory = new Directory(root, "Sub", true);
+		fileInRoot = new File(root, "bestand", "txt");
+		file = Files.createTempFile("journal", ".bin");
+		journal = Journal.create(file, root);
+	}
+
+	@After
+	public void tearDownFixture() throws IOException{
+		journal.close();
+		Files.deleteIfExists(file);
+	}
+
+	private Directory closeAndRecover() throws IOException {
+		journal.close();
+		journal = Journal.recover(file);
+		return journal.getRoot();
+	}
+
+	@Test
+	public void testRecover_ReplaysAllChanges() throws IOException {
+		Directory dir = new Directory(subDirectory, "dir", true);
+		File moved = new File(dir, "moved", 10, true, "java");
+		fileInRoot.enlarge(42);
+		fileInRoot.shorten(2);
+		moved.changeName("renamed");
+		root.addItem(moved);
+		Directory outside = new Directory("outside");
+		new File(outside, "inner", 7, true, "pdf");
+		dir.addItems(Arrays.asList(outside, new File("loose", "txt")));
+		new File(dir, "gone", "txt").makeRoot();
+		subDirectory.setByteQuota(5000);
+		new File(subDirectory, "locked", 3, true, "txt").setWritable(false);
+		Directory recovered = closeAndRecover();
+
+		assertNotSame(root, recovered);
+		assertEquals(root.getTotalSize(), recovered.getTotalSize());
+		assertEquals(root.getTotalNbItems(), recovered.getTotalNbItems());
+		assertEquals(40, ((File) recovered.getItem("bestand")).getSize());
+		assertEquals(fileInRoot.getModificationTimeMillis(), recovered.getItem("bestand").getModificationTimeMillis());
+		File recoveredMoved = (File) recovered.getItem("renamed");
+		assertEquals(10, recoveredMoved.getSize());
+		assertSame(FileType.JAVA, recoveredMoved.getType());
+		assertEquals(moved.getCreationTimeMillis(), recoveredMoved.getCreationTimeMillis());
+		assertEquals(7, ((File) recovered.resolve("/Sub/dir/outside/inner")).getSize());
+		assertTrue(recovered.resolve("/Sub/dir").getDirectory() == recovered.getItem("Sub"));
+		assertFalse(((Directory) recovered.resolve("/Sub/dir")).exists("gone"));
+		assertTrue(((Directory) recovered.resolve("/Sub/dir")).exists("loose"));
+		assertEquals(5000, ((Directory) recovered.getItem("Sub")).getByteQuota());
+		assertFalse(recovered.resolve("/Sub/locked").isWritable());
+		assertSame(journal, recovered.getJournal());
+	}
+
+	@Test
+	public void testRecover_AddItemsMovedAndNewUnsorted() throws IOException {
+		File b = new File(subDirectory, "b", 5, true, "txt");
+		Directory dir = new Directory(root, "dir", true);
+		dir.addItems(Arrays.asList(b, new File("a", 3, true, "pdf"), new Directory(subDirectory, "c", true)));
+		Directory recovered = closeAndRecover();
+		Directory recoveredDir = (Directory) recovered.getItem("dir");
+		assertEquals(5, ((File) recoveredDir.getItem("b")).getSize());
+		assertSame(FileType.PDF, ((File) recoveredDir.getItem("a")).getType());
+		assertTrue(recoveredDir.getItem("c") instanceof Directory);
+		assertEquals(0, ((Directory) recovered.getItem("Sub")).getNbItems());
+		assertEquals(root.getTotalNbItems(), recovered.getTotalNbItems());
+	}
+
+	@Test
+	public void testRecover_ReadOnlyDirectoryWithContents() throws IOException {
+		Directory outside = new Directory("outside");
+		new File(outside, "inner", 7, true, "pdf");
+		outside.setWritable(false);
+		subDirectory.addItem(outside);
+		Directory recovered = closeAndRecover();
+		assertFalse(recovered.resolve("/Sub/outside").isWritable());
+		assertEquals(7, ((File) recovered.resolve("/Sub/outside/inner")).getSize());
+		assertEquals(root.getTotalSize(), recovered.getTotalSize());
+	}
+
+	@Test
+	public void testRecover_ItemQuotaBelowUsage() throws IOException {
+		Directory limited = new Directory("limited");
+		new File(limited, "a", 1, true, "txt");
+		new File(limited, "b", 2, true, "txt");
+		limited.setItemQuota(1);
+		limited.setByteQuota(2);
+		subDirectory.addItem(limited);
+		Directory recovered = closeAndRecover();
+		Directory recoveredLimited = (Directory) recovered.resolve("/Sub/limited");
+		assertEquals(2, recoveredLimited.getNbItems());
+		assertEquals(1, recoveredLimited.getItemQuota());
+		assertEquals(3, recoveredLimited.getTotalSize());
+		assertEquals(root.getTotalNbItems(), recovered.getTotalNbItems());
+	}
+
+	@Test
+	public void testRecover_DropsTornRecord() throws IOException {
+		new File(root, "kept", 1, true, "txt");
+		journal.sync();
+		long complete = Files.size(file);
+		new File(root, "torn", 2, true, "txt");
+		journal.close();
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+			channel.truncate(Files.size(file) - 3);
+		}
+		Directory recovered = Journal.recover(file).getRoot();
+		journal = recovered.getJournal();
+		assertTrue(recovered.exists("kept"));
+		assertFalse(recovered.exists("torn"));
+		assertEquals(complete, Files.size(file));
+		new File(recovered, "after", 3, true, "txt");
+		assertTrue(closeAndRecover().exists("after"));
+	}
+
+	@Test
+	public void testCompact_KeepsTreeAndShrinksJournal() throws IOException {
+		for (int i = 0; i < 1000; i++) fileInRoot.enlarge(1);
+		journal.sync();
+		long before = journal.getSize();
+		journal.compact();
+		assertTrue(journal.getSize() < before);
+		fileInRoot.enlarge(1);
+		Directory recovered = closeAndRecover();
+		assertEquals(1001, ((File) recovered.getItem("bestand")).getSize());
+		assertTrue(recovered.exists("sub"));
+	}
+
+	@Test
+	public void testCompact_KeepsChangesMadeMeanwhile() throws Exception {
+		for (int i = 0; i < 2000; i++) new File(subDirectory, "before" + i, i, true, "txt");
+		Thread writer = new Thread(() -> {
+			for (int i = 0; i < 2000; i++) new File(root, "during" + i, i, true, "txt");
+		});
+		writer.start();
+		journal.compact();
+		writer.join();
+		fileInRoot.enlarge(5);
+		Directory recovered = closeAndRecover();
+		assertEquals(root.getTotalNbItems(), recovered.getTotalNbItems());
+		assertEquals(root.getTotalSize(), recovered.getTotalSize());
+		assertEquals(1999, ((File) recovered.getItem("during1999")).getSize());
+	}
+
+	@Test
+	public void testClose_StopsJournaling() throws IOException {
+		journal.close();
+		assertNull(root.getJournal());
+		new File(root, "unjournaled", "txt");
+		journal = Journal.recover(file);
+		assertFalse(journal.getRoot().exists("unjournaled"));
+	}
+
+	@Test (expected = IllegalArgumentException.class)
+	public void testAddItem_JournaledRoot() {
+		new Directory("other").addItem(root);
+	}
+
+	@Test (expected = StreamCorruptedException.class)
+	public void testRecover_NotAJournal() throws IOException {
+		Path other = Files.createTempFile("other", ".bin");
+		try {
+			Files.write(other, new byte[] {1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13});
+			Journal.recover(other);
+		} finally {
+			Files.delete(other);
+		}
+	}
+
+}
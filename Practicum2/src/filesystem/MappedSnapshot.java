@@ -0,0 +1,353 @@
+package filesystem;
+
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Saves whole trees to an indexed snapshot, and opens such a snapshot as a
+ * read-only tree that is only read from the file as far as it is used.
+ *
+ * An indexed snapshot starts like any snapshot, with the magic number and its
+ * own format version, and ends with the position of the root record and the
+ * magic number again. Records are written in post-order, so every directory
+ * comes after its items and ends with the positions of their records, sorted by
+ * name, as 4-byte integers. Directory records also hold the totals of the
+ * directory. The fields of a record are those of Snapshot, except that creation
+ * times are absolute, and that a name or type that was written before is
+ * replaced by the position at which it was written, so every record can be read
+ * on its own.
+ *
+ * Opening a snapshot maps the file into memory and reads the root record only.
+ * The items of a directory are read when the contents of the directory are first
+ * used, for example by getItem, getItemAt or exists. Directories that are never
+ * used are never read. Files of up to 2 GiB are supported.
+ */
+public final class MappedSnapshot {
+
+	/**
+	 * The version of the indexed format.
+	 */
+	public static final int VERSION = 2;
+
+	private MappedSnapshot() {
+	}
+
+	/**
+	 * Write an indexed snapshot of the tree of the given root directory to the given channel.
+	 *
+	 * @param	root
+	 * 			The root directory of the tree to save.
+	 * @param	channel
+	 * 			The channel to write the snapshot to. It is not closed.
+	 * @throws	IllegalArgumentException
+	 * 			| root == null || !root.isRoot()
+	 * @throws	IOException
+	 * 			The snapshot could not be written, or would be larger than 2 GiB.
+	 */
+	public static void save(Directory root, WritableByteChannel channel) throws IOException {
+		if (root == null || !root.isRoot()) throw new IllegalArgumentException("Only the root of a tree can be saved.");
+		IndexedWriter writer = new IndexedWriter(channel);
+		writer.buffer.putInt(Snapshot.MAGIC);
+		writer.putVarint(VERSION);
+		ArrayList<Level> levels = new ArrayList<>();
+		levels.add(new Level(root));
+		int rootOffset = 0;
+		while (!levels.isEmpty()) {
+			Level level = levels.get(levels.size() - 1);
+			if (level.next < level.items.size()) {
+				FilesystemItem item = level.items.get(level.next);
+				if (item instanceof Directory) {
+					levels.add(new Level((Directory) item));
+				} else {
+					level.add(writer.putFileRecord((File) item), ((File) item).getSize(), 1);
+				}
+				continue;
+			}
+			levels.remove(levels.size() - 1);
+			int offset = writer.putDirectoryRecord(level);
+			if (levels.isEmpty()) rootOffset = offset;
+			else levels.get(levels.size() - 1).add(offset, level.totalSize, 1 + level.totalNbItems);
+		}
+		writer.ensure(8);
+		writer.buffer.putInt(rootOffset);
+		writer.buffer.putInt(Snapshot.MAGIC);
+		writer.checkSize();
+		writer.flush();
+	}
+
+	/**
+	 * Open the indexed snapshot in the given file as a read-only tree, and return its root.
+	 * Every item of the tree is not writable. Only the root is read here; the items of
+	 * every directory are read from the file when they are first needed.
+	 *
+	 * @param	file
+	 * 			The file holding the snapshot.
+	 * @return	A new root directory with the items of the snapshot.
+	 * 			| result.isRoot() && !result.isWritable()
+	 * @throws	IOException
+	 * 			The file could not be mapped, is not an indexed snapshot or is damaged.
+	 */
+	public static Directory open(Path file) throws IOException {
+		MappedByteBuffer buffer;
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			if (channel.size() > Integer.MAX_VALUE) throw new IOException("The snapshot is larger than 2 GiB.");
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		try {
+			int size = buffer.limit();
+			if (size < 13 || buffer.getInt(0) != Snapshot.MAGIC || buffer.getInt(size - 4) != Snapshot.MAGIC)
+				throw new StreamCorruptedException("Not a filesystem snapshot.");
+			long version = new Cursor(buffer, 4).getVarint();
+			if (version != VERSION) throw new StreamCorruptedException("Not an indexed snapshot: version " + version + ".");
+			FilesystemItem root = readItem(buffer, buffer.getInt(size - 8), null);
+			if (!(root instanceof Directory)) throw new StreamCorruptedException("The root of a snapshot must be a directory.");
+			return (Directory) root;
+		} catch (IndexOutOfBoundsException e) {
+			throw new StreamCorruptedException("The snapshot refers to a position outside the file.");
+		}
+	}
+
+	/**
+	 * Read the record at the given position as a new item, and place it in the given
+	 * directory if there is one. The items of a directory are left to be read later.
+	 */
+	private static FilesystemItem readItem(ByteBuffer buffer, int offset, Directory parent) throws IOException {
+		Cursor cursor = new Cursor(buffer, offset);
+		int flags = cursor.getByte();
+		String name = cursor.getString();
+		if (!FilesystemItem.isValidName(name)) throw new StreamCorruptedException("Invalid name: " + name);
+		long creationTime = cursor.getZigzag();
+		long modificationTime = ((flags & Snapshot.MODIFIED) != 0) ? creationTime + cursor.getZigzag() : FilesystemItem.NOT_MODIFIED;
+		FilesystemItem item;
+		if ((flags & Snapshot.DIRECTORY) != 0) {
+			Directory dir = new Directory(null, name, false, (flags & Snapshot.CONCURRENT) != 0);
+			if ((flags & Snapshot.QUOTA) != 0) {
+				long byteQuota = cursor.getVarint(), itemQuota = cursor.getVarint();
+				if (!Directory.isValidQuota(byteQuota) || !Directory.isValidQuota(itemQuota))
+					throw new StreamCorruptedException("Invalid quota.");
+				dir.setByteQuota(byteQuota);
+				dir.setItemQuota(itemQuota);
+			}
+			dir.restoreTotals(cursor.getVarint(), cursor.getVarint());
+			long nbItems = cursor.getVarint();
+			if (nbItems > (buffer.limit() - cursor.position) / 4) throw new StreamCorruptedException("Too many items in a directory.");
+			if (nbItems > 0) dir.setLazyContents(new MappedContents(buffer, cursor.position, (int) nbItems));
+			item = dir;
+		} else {
+			long size = cursor.getVarint();
+			if (size > Integer.MAX_VALUE) throw new StreamCorruptedException("Invalid size: " + size);
+			String type = cursor.getString();
+			try {
+				FileType.register(type);
+			} catch (IllegalArgumentException e) {
+				throw new StreamCorruptedException("Invalid file type: " + type);
+			}
+			item = new File(null, name, (int) size, false, type);
+		}
+		item.restoreTimes(creationTime, modificationTime);
+		if (parent != null) item.restorePosition(parent);
+		return item;
+	}
+
+	/**
+	 * The items of a directory in a mapped snapshot that were not read yet.
+	 */
+	private static final class MappedContents implements Directory.LazyContents {
+
+		MappedContents(ByteBuffer buffer, int offsets, int nbItems) {
+			this.buffer = buffer;
+			this.offsets = offsets;
+			this.nbItems = nbItems;
+		}
+
+		private final ByteBuffer buffer;
+
+		/**
+		 * The position of the positions of the records of the items.
+		 */
+		private final int offsets;
+
+		private final int nbItems;
+
+		@Override
+		public ArrayList<FilesystemItem> load(Directory dir) {
+			ArrayList<FilesystemItem> items = new ArrayList<>(nbItems);
+			try {
+				for (int i = 0; i < nbItems; i++) items.add(readItem(buffer, buffer.getInt(offsets + 4 * i), dir));
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			} catch (IndexOutOfBoundsException e) {
+				throw new UncheckedIOException(new StreamCorruptedException("The snapshot refers to a position outside the file."));
+			}
+			return items;
+		}
+	}
+
+	/**
+	 * A position in a mapped snapshot from which fields are read. Only absolute
+	 * reads are done on the buffer, so directories can be read by several threads.
+	 */
+	private static final class Cursor {
+
+		Cursor(ByteBuffer buffer, int position) {
+			this.buffer = buffer;
+			this.position = position;
+		}
+
+		final ByteBuffer buffer;
+		int position;
+
+		int getByte() {
+			return buffer.get(position++) & 0xFF;
+		}
+
+		long getVarint() throws StreamCorruptedException {
+			long value = 0;
+			for (int shift = 0; shift < 64; shift += 7) {
+				int b = getByte();
+				value |= (long) (b & 0x7F) << shift;
+				if ((b & 0x80) == 0) return value;
+			}
+			throw new StreamCorruptedException("Invalid varint.");
+		}
+
+		long getZigzag() throws StreamCorruptedException {
+			long value = getVarint();
+			return (value >>> 1) ^ -(value & 1);
+		}
+
+		/**
+		 * Read a string written here, or at the position that is written here.
+		 */
+		String getString() throws StreamCorruptedException {
+			long reference = getVarint();
+			if (reference == 0) return getBytesAsString();
+			if (reference < 0 || reference >= position) throw new StreamCorruptedException("Invalid string reference.");
+			return new Cursor(buffer, (int) reference).getBytesAsString();
+		}
+
+		private String getBytesAsString() throws StreamCorruptedException {
+			long length = getVarint();
+			if (length < 0 || length > buffer.limit() - position) throw new StreamCorruptedException("Invalid string length.");
+			byte[] bytes = new byte[(int) length];
+			for (int i = 0; i < bytes.length; i++) bytes[i] = buffer.get(position++);
+			return new String(bytes, StandardCharsets.UTF_8);
+		}
+	}
+
+	/**
+	 * A directory whose items are being written.
+	 */
+	private static final class Level {
+
+		Level(Directory directory) {
+			this.directory = directory;
+			directory.addContentsTo(items);
+			this.offsets = new int[items.size()];
+		}
+
+		final Directory directory;
+		final ArrayList<FilesystemItem> items = new ArrayList<>();
+		final int[] offsets;
+		int next = 0;
+		long totalSize = 0;
+		long totalNbItems = 0;
+
+		/**
+		 * Register that the next item was written at the given position, with the given totals.
+		 */
+		void add(int offset, long size, long nbItems) {
+			offsets[next++] = offset;
+			totalSize += size;
+			totalNbItems += nbItems;
+		}
+	}
+
+	/**
+	 * Writes the records of an indexed snapshot.
+	 */
+	private static final class IndexedWriter extends Snapshot.Writer {
+
+		IndexedWriter(WritableByteChannel channel) {
+			super(channel);
+		}
+
+		/**
+		 * The position at which every string was first written, for at most MAX_STRINGS strings.
+		 */
+		final HashMap<String, Integer> positions = new HashMap<>();
+
+		int putFileRecord(File file) throws IOException {
+			int offset = putRecordHeader(file, 0);
+			putVarint(file.getSize());
+			putString(file.getType().getName());
+			return offset;
+		}
+
+		int putDirectoryRecord(Level level) throws IOException {
+			Directory dir = level.directory;
+			boolean quota = dir.getByteQuota() != Directory.NO_QUOTA || dir.getItemQuota() != Directory.NO_QUOTA;
+			int offset = putRecordHeader(dir, Snapshot.DIRECTORY | (dir.isConcurrent() ? Snapshot.CONCURRENT : 0)
+					| (quota ? Snapshot.QUOTA : 0));
+			if (quota) {
+				putVarint(dir.getByteQuota());
+				putVarint(dir.getItemQuota());
+			}
+			putVarint(level.totalSize);
+			putVarint(level.totalNbItems);
+			putVarint(level.offsets.length);
+			for (int childOffset: level.offsets) {
+				ensure(4);
+				buffer.putInt(childOffset);
+			}
+			return offset;
+		}
+
+		/**
+		 * Write the flags, the name and the times of the given item, and return the
+		 * position of the record.
+		 */
+		int putRecordHeader(FilesystemItem item, int flags) throws IOException {
+			int offset = checkSize();
+			long modificationTime = item.getModificationTimeMillis();
+			boolean modified = modificationTime != FilesystemItem.NOT_MODIFIED;
+			ensure(Snapshot.MAX_RECORD);
+			buffer.put((byte) (flags | (item.isWritable() ? Snapshot.WRITABLE : 0) | (modified ? Snapshot.MODIFIED : 0)));
+			putString(item.getName());
+			ensure(Snapshot.MAX_RECORD);
+			putZigzag(item.getCreationTimeMillis());
+			if (modified) putZigzag(modificationTime - item.getCreationTimeMillis());
+			return offset;
+		}
+
+		@Override
+		void putString(String string) throws IOException {
+			Integer position = positions.get(string);
+			if (position != null) {
+				putVarint(position);
+				return;
+			}
+			putVarint(0);
+			if (positions.size() < Snapshot.MAX_STRINGS) positions.put(string, checkSize());
+			putBytes(string.getBytes(StandardCharsets.UTF_8));
+		}
+
+		/**
+		 * Return the current position, which must still fit in a 4-byte position.
+		 */
+		int checkSize() throws IOException {
+			if (position() > Integer.MAX_VALUE - 8) throw new IOException("The snapshot would be larger than 2 GiB.");
+			return (int) position();
+		}
+	}
+}
@@ -0,0 +1,128 @@
+package filesystem;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.junit.*;
+
+/**
+ * A JUnit test class for indexed snapshots that are opened as mapped, read-only trees.
+ *
+ */
+public class MappedSnapshotTest {
+
+	Directory root;
+	Directory subDirectory;
+	File fileInRoot;
+	Path snapshot;
+
+	@Before
+	public void setUpFixture() throws IOException{
+		root = new Directory("root");
+		subDirectory = new Directory(root, "Sub", true);
+		fileInRoot = new File(root, "bestand", "txt");
+		snapshot = Files.createTempFile("snapshot", ".bin");
+	}
+
+	@After
+	public void tearDownFixture() throws IOException{
+		Files.deleteIfExists(snapshot);
+	}
+
+	private Directory saveAndOpen(Directory dir) throws IOException {
+		try (FileChannel channel = FileChannel.open(snapshot, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			MappedSnapshot.save(dir, channel);
+		}
+		return MappedSnapshot.open(snapshot);
+	}
+
+	@Test
+	public void testOpen_ReadsDirectoriesWhenUsed() throws IOException {
+		for (int i = 0; i < 10; i++){
+			Directory dir = new Directory(subDirectory, "dir" + i, true);
+			for (int j = 0; j < 100; j++) new File(dir, "file" + j, j, true, "java");
+		}
+		fileInRoot.enlarge(42);
+		Directory opened = saveAndOpen(root);
+
+		assertFalse(opened.hasLoadedContents());
+		assertEquals(root.getTotalSize(), opened.getTotalSize());
+		assertEquals(root.getTotalNbItems(), opened.getTotalNbItems());
+		assertTrue(opened.exists("sub"));
+		assertTrue(opened.hasLoadedContents());
+		Directory openedSub = (Directory) opened.getItem("Sub");
+		assertFalse(openedSub.hasLoadedContents());
+		assertEquals(100 * 99 / 2 * 10, openedSub.getTotalSize());
+		Directory dir3 = (Directory) openedSub.getItemAt(4);
+		assertEquals("dir3", dir3.getName());
+		File file = (File) dir3.getItem("file7");
+		assertEquals(7, file.getSize());
+		assertSame(FileType.JAVA, file.getType());
+		assertEquals("/Sub/dir3/file7", file.getPath());
+		assertEquals(3, file.getDepth());
+		assertSame(opened, file.getRoot());
+		assertFalse(((Directory) openedSub.getItem("dir4")).hasLoadedContents());
+
+		File openedFile = (File) opened.getItem("bestand");
+		assertEquals(42, openedFile.getSize());
+		assertEquals(fileInRoot.getCreationTimeMillis(), openedFile.getCreationTimeMillis());
+		assertEquals(fileInRoot.getModificationTimeMillis(), openedFile.getModificationTimeMillis());
+	}
+
+	@Test (expected = NotWritableException.class)
+	public void testOpen_ReadOnly() throws IOException {
+		Directory opened = saveAndOpen(root);
+		((File) opened.getItem("bestand")).enlarge(1);
+	}
+
+	@Test
+	public void testOpen_WholeTreeMatches() throws IOException {
+		Directory deepest = subDirectory;
+		for (int i = 0; i < 1000; i++) deepest = new Directory(deepest, "level" + i, true);
+		new File(deepest, "bottom", 5, true, "pdf");
+		Directory opened = saveAndOpen(root);
+		assertEquals(root.find(item -> true).size(), opened.find(item -> true).size());
+		StringBuilder path = new StringBuilder("/Sub");
+		for (int i = 0; i < 1000; i++) path.append("/level").append(i);
+		File bottom = (File) opened.resolve(path + "/bottom");
+		assertEquals(5, bottom.getSize());
+		assertEquals(1002, bottom.getDepth());
+		assertEquals(5, opened.getTotalSize());
+	}
+
+	@Test (expected = StreamCorruptedException.class)
+	public void testOpen_NegativeQuota() throws IOException {
+		try (FileChannel channel = FileChannel.open(snapshot, StandardOpenOption.WRITE)) {
+			Snapshot.Writer writer = new Snapshot.Writer(channel);
+			writer.buffer.putInt(Snapshot.MAGIC);
+			writer.putVarint(MappedSnapshot.VERSION);
+			int rootOffset = (int) writer.position();
+			writer.buffer.put((byte) (Snapshot.DIRECTORY | Snapshot.QUOTA));
+			writer.putString("root");
+			writer.putZigzag(0);
+			writer.putVarint(Directory.NO_QUOTA);
+			writer.putVarint(-1);
+			writer.putVarint(0);
+			writer.putVarint(0);
+			writer.putVarint(0);
+			writer.buffer.putInt(rootOffset);
+			writer.buffer.putInt(Snapshot.MAGIC);
+			writer.flush();
+		}
+		MappedSnapshot.open(snapshot);
+	}
+
+	@Test (expected = StreamCorruptedException.class)
+	public void testOpen_StreamingSnapshot() throws IOException {
+		try (FileChannel channel = FileChannel.open(snapshot, StandardOpenOption.WRITE)) {
+			Snapshot.save(root, channel);
+		}
+		MappedSnapshot.open(snapshot);
+	}
+
+}
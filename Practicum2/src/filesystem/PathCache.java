@@ -0,0 +1,149 @@
+package filesystem;
+import be.kuleuven.cs.som.annotate.*;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A bounded cache from paths to the items they resolve to, used by a root
+ * directory. When the cache is full, the least recently used path is evicted.
+ * Paths are kept both in access order, for eviction, and in sorted order, so
+ * that all paths below a renamed, moved or removed item can be invalidated
+ * without looking at any other path.
+ *
+ * @invar	The number of cached paths never exceeds the capacity.
+ * 			| getSize() <= getCapacity()
+ */
+public final class PathCache {
+
+	/**
+	 * Default number of paths a cache holds.
+	 */
+	public static final int DEFAULT_CAPACITY = 4096;
+
+	/**
+	 * Initialise a new empty path cache with the given capacity.
+	 *
+	 * @param	capacity
+	 * 			The maximum number of paths in the new cache.
+	 * @throws	IllegalArgumentException
+	 * 			| capacity <= 0
+	 */
+	PathCache(int capacity) throws IllegalArgumentException {
+		if (capacity <= 0) throw new IllegalArgumentException("The capacity of a path cache must be positive.");
+		this.capacity = capacity;
+	}
+
+	/**
+	 * Variable registering the maximum number of paths in this cache.
+	 */
+	private final int capacity;
+
+	/**
+	 * The cached items, keyed by normalised path, in order of last access.
+	 */
+	private final LinkedHashMap<String, FilesystemItem> byAccess = new LinkedHashMap<>(16, 0.75f, true);
+
+	/**
+	 * The same cached paths, in sorted order.
+	 */
+	private final TreeMap<String, FilesystemItem> byPath = new TreeMap<>();
+
+	/**
+	 * Variable registering the number of lookups that were answered by this cache.
+	 */
+	private long hits = 0;
+
+	/**
+	 * Variable registering the number of lookups that were not answered by this cache.
+	 */
+	private long misses = 0;
+
+	/**
+	 * Variable registering the number of invalidations so far, used to recognise
+	 * results that were resolved while an invalidation took place.
+	 */
+	private long version = 0;
+
+	/**
+	 * Return the maximum number of paths in this cache.
+	 */
+	@Basic @Immutable
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * Return the number of paths in this cache.
+	 */
+	public synchronized int getSize() {
+		return byAccess.size();
+	}
+
+	/**
+	 * Return the number of lookups that were answered by this cache.
+	 */
+	@Basic
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	/**
+	 * Return the number of lookups that were not answered by this cache.
+	 */
+	@Basic
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * Return the number of invalidations so far.
+	 */
+	synchronized long getVersion() {
+		return version;
+	}
+
+	/**
+	 * Return the item cached for the given normalised path, or null, and count the lookup.
+	 */
+	synchronized FilesystemItem get(String key) {
+		FilesystemItem item = byAccess.get(key);
+		if (item == null) misses++;
+		else hits++;
+		return item;
+	}
+
+	/**
+	 * Cache the given item for the given normalised path, unless an invalidation
+	 * took place since the given version was read.
+	 */
+	synchronized void put(String key, FilesystemItem item, long resolvedAtVersion) {
+		if (resolvedAtVersion != version) return;
+		byAccess.put(key, item);
+		byPath.put(key, item);
+		if (byAccess.size() > capacity) {
+			Iterator<String> eldest = byAccess.keySet().iterator();
+			byPath.remove(eldest.next());
+			eldest.remove();
+		}
+	}
+
+	/**
+	 * Remove the given normalised path and all paths below it from this cache.
+	 */
+	synchronized void invalidate(String key) {
+		version++;
+		String prefix = key.endsWith("/") ? key : key + "/";
+		byAccess.remove(key);
+		byPath.remove(key);
+		Iterator<Map.Entry<String, FilesystemItem>> below = byPath.tailMap(prefix, true).entrySet().iterator();
+		while (below.hasNext()) {
+			Map.Entry<String, FilesystemItem> entry = below.next();
+			if (!entry.getKey().startsWith(prefix)) break;
+			byAccess.remove(entry.getKey());
+			below.remove();
+		}
+	}
+}
@@ -0,0 +1,43 @@
+package filesystem;
+import be.kuleuven.cs.som.annotate.*;
+
+/**
+ * A class for signalling attempts to exceed the quota of a directory.
+ */
+public class QuotaExceededException extends RuntimeException {
+
+	/**
+	 * Required because this class inherits from Exception
+	 */
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Variable referencing the directory whose quota would be exceeded.
+	 */
+	private final Directory dir;
+
+	/**
+	 * Initialise this new quota exceeded exception involving the
+	 * given directory.
+	 * 
+	 * @param	dir
+	 * 			The directory for the new quota exceeded exception.
+	 * @post	The directory involved in the new quota exceeded exception
+	 * 			is set to the given directory.
+	 * 			| new.getDir() == dir
+	 */
+	@Raw
+	public QuotaExceededException(Directory dir) {
+		this.dir = dir;
+	}
+	
+	/**
+	 * Return the directory involved in this quota exceeded exception.
+	 */
+	@Raw @Basic
+	public Directory getDir() {
+		return this.dir;
+	}
+	
+	
+}
@@ -0,0 +1,462 @@
+package filesystem;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Saves whole trees to a compact binary snapshot and loads them back, streaming
+ * through a fixed-size buffer over an NIO channel.
+ *
+ * A snapshot starts with a magic number and a format version, followed by one
+ * record for every item of the tree in pre-order: every directory is followed
+ * by its items, sorted by name. A record holds a byte of flags, the name, the
+ * creation time and, if the item was modified, the modification time. A file
+ * record then holds its size and the name of its type, and a directory record
+ * its quotas, if any, and its number of items. Numbers are written as varints.
+ * Creation times are written as zigzag varints relative to the creation time of
+ * the previous record, and modification times relative to the creation time of
+ * the same record, as items in one tree are mostly made close together. Names
+ * and types are written once; later uses refer to their position in a table of
+ * strings that the reader builds up in the same way as the writer.
+ *
+ * Snapshots of a tree that is changed while it is saved hold every directory as
+ * it was at some moment, but not necessarily the whole tree as it was at one moment.
+ */
+public final class Snapshot {
+
+	/**
+	 * The first four bytes of every snapshot: "FSNP".
+	 */
+	static final int MAGIC = 0x46534e50;
+
+	/**
+	 * The version of the format written by this class.
+	 */
+	public static final int VERSION = 1;
+
+	static final int DIRECTORY = 1;
+	static final int WRITABLE = 2;
+	static final int MODIFIED = 4;
+	static final int CONCURRENT = 8;
+	static final int QUOTA = 16;
+
+	/**
+	 * The maximum number of strings in the string table. Later new strings are
+	 * written out in full every time, so the table stays bounded for huge trees.
+	 */
+	static final int MAX_STRINGS = 1 << 20;
+
+	static final int BUFFER_SIZE = 1 << 16;
+
+	/**
+	 * Room that is kept free in the buffer for one record without its strings.
+	 */
+	static final int MAX_RECORD = 64;
+
+	private Snapshot() {
+	}
+
+	/**
+	 * Write a snapshot of the tree of the given root directory to the given channel.
+	 *
+	 * @param	root
+	 * 			The root directory of the tree to save.
+	 * @param	channel
+	 * 			The channel to write the snapshot to. It is not closed.
+	 * @throws	IllegalArgumentException
+	 * 			| root == null || !root.isRoot()
+	 * @throws	IOException
+	 * 			The snapshot could not be written.
+	 */
+	public static void save(Directory root, WritableByteChannel channel) throws IOException {
+		if (root == null || !root.isRoot()) throw new IllegalArgumentException("Only the root of a tree can be saved.");
+		Writer writer = new Writer(channel);
+		writer.buffer.putInt(MAGIC);
+		writer.putVarint(VERSION);
+		ArrayDeque<FilesystemItem> pending = new ArrayDeque<>();
+		pending.push(root);
+		ArrayList<FilesystemItem> contents = new ArrayList<>();
+		while (!pending.isEmpty()) {
+			FilesystemItem item = pending.pop();
+			if (item instanceof Directory) {
+				contents.clear();
+				((Directory) item).addContentsTo(contents);
+				writer.putDirectory((Directory) item, contents.size());
+				for (int i = contents.size() - 1; i >= 0; i--) pending.push(contents.get(i));
+			} else {
+				writer.putFile((File) item);
+			}
+		}
+		writer.flush();
+	}
+
+	/**
+	 * Read a snapshot from the given channel, and return the root of the tree it holds.
+	 * The contents of every directory are restored in the order in which they were
+	 * saved, which is already sorted by name.
+	 *
+	 * @param	channel
+	 * 			The channel to read the snapshot from. It is not closed.
+	 * @return	A new root directory with the items of the snapshot.
+	 * 			| result.isRoot()
+	 * @throws	IOException
+	 * 			The snapshot could not be read, is of an unknown version or is damaged.
+	 */
+	public static Directory load(ReadableByteChannel channel) throws IOException {
+		Reader reader = Reader.open(channel);
+		ArrayDeque<Level> levels = new ArrayDeque<>();
+		Directory root = null;
+		do {
+			Level parent = levels.peek();
+			FilesystemItem item = reader.getItem(parent);
+			if (parent == null) {
+				if (!(item instanceof Directory)) throw new StreamCorruptedException("The root of a snapshot must be a directory.");
+				root = (Directory) item;
+			} else {
+				parent.items.add(item);
+			}
+			if (item instanceof Directory) levels.push(new Level((Directory) item, reader.lastNbItems));
+			while (!levels.isEmpty() && levels.peek().isComplete()) {
+				Level done = levels.pop();
+				try {
+					done.directory.restoreContents(done.items);
+				} catch (IllegalArgumentException e) {
+					throw new StreamCorruptedException(e.getMessage());
+				}
+			}
+		} while (!levels.isEmpty());
+		return root;
+	}
+
+	/**
+	 * A directory whose items are being read.
+	 */
+	private static final class Level {
+
+		Level(Directory directory, long nbItems) throws StreamCorruptedException {
+			if (nbItems > Integer.MAX_VALUE) throw new StreamCorruptedException("Too many items in a directory.");
+			this.directory = directory;
+			this.nbItems = (int) nbItems;
+			this.items = new ArrayList<>(Math.min(this.nbItems, BUFFER_SIZE));
+		}
+
+		final Directory directory;
+		final int nbItems;
+		final ArrayList<FilesystemItem> items;
+
+		boolean isComplete() {
+			return items.size() == nbItems;
+		}
+	}
+
+	/**
+	 * Writes records to a channel through a buffer.
+	 */
+	static class Writer {
+
+		Writer(WritableByteChannel channel) {
+			this.channel = channel;
+		}
+
+		final WritableByteChannel channel;
+		final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+		final HashMap<String, Integer> strings = new HashMap<>();
+		long lastCreationTime = 0;
+
+		/**
+		 * The number of bytes written to the channel so far.
+		 */
+		long flushed = 0;
+
+		/**
+		 * Return the position in the snapshot of the next byte to be written.
+		 */
+		long position() {
+			return flushed + buffer.position();
+		}
+
+		void putDirectory(Directory dir, int nbItems) throws IOException {
+			boolean quota = dir.getByteQuota() != Directory.NO_QUOTA || dir.getItemQuota() != Directory.NO_QUOTA;
+			putHeader(dir, DIRECTORY | (dir.isConcurrent() ? CONCURRENT : 0) | (quota ? QUOTA : 0));
+			if (quota) {
+				putVarint(dir.getByteQuota());
+				putVarint(dir.getItemQuota());
+			}
+			putVarint(nbItems);
+		}
+
+		void putFile(File file) throws IOException {
+			putHeader(file, 0);
+			putVarint(file.getSize());
+			putString(file.getType().getName());
+		}
+
+		/**
+		 * Write the flags, the name and the times of the given item.
+		 */
+		void putHeader(FilesystemItem item, int flags) throws IOException {
+			long modificationTime = item.getModificationTimeMillis();
+			boolean modified = modificationTime != FilesystemItem.NOT_MODIFIED;
+			ensure(MAX_RECORD);
+			buffer.put((byte) (flags | (item.isWritable() ? WRITABLE : 0) | (modified ? MODIFIED : 0)));
+			putString(item.getName());
+			ensure(MAX_RECORD);
+			putZigzag(item.getCreationTimeMillis() - lastCreationTime);
+			lastCreationTime = item.getCreationTimeMillis();
+			if (modified) putZigzag(modificationTime - item.getCreationTimeMillis());
+		}
+
+		/**
+		 * Write a reference to the given string, and the string itself the first time.
+		 */
+		void putString(String string) throws IOException {
+			Integer id = strings.get(string);
+			if (id != null) {
+				putVarint(id + 1);
+				return;
+			}
+			if (strings.size() < MAX_STRINGS) strings.put(string, strings.size());
+			byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+			putVarint(0);
+			putBytes(bytes);
+		}
+
+		/**
+		 * Write the length of the given bytes, followed by the bytes themselves.
+		 */
+		void putBytes(byte[] bytes) throws IOException {
+			putVarint(bytes.length);
+			for (int offset = 0; offset < bytes.length; ) {
+				if (!buffer.hasRemaining()) flush();
+				int length = Math.min(buffer.remaining(), bytes.length - offset);
+				buffer.put(bytes, offset, length);
+				offset += length;
+			}
+		}
+
+		void putZigzag(long value) throws IOException {
+			putVarint((value << 1) ^ (value >> 63));
+		}
+
+		void putVarint(long value) throws IOException {
+			ensure(10);
+			while ((value & ~0x7FL) != 0) {
+				buffer.put((byte) ((value & 0x7F) | 0x80));
+				value >>>= 7;
+			}
+			buffer.put((byte) value);
+		}
+
+		void ensure(int room) throws IOException {
+			if (buffer.remaining() < room) flush();
+		}
+
+		void flush() throws IOException {
+			buffer.flip();
+			flushed += buffer.remaining();
+			while (buffer.hasRemaining()) channel.write(buffer);
+			buffer.clear();
+		}
+	}
+
+	/**
+	 * Reads records from a channel through a buffer.
+	 */
+	static final class Reader {
+
+		Reader(ReadableByteChannel channel) {
+			this.channel = channel;
+			buffer.limit(0);
+		}
+
+		/**
+		 * Return a reader of the records of the snapshot in the given channel, after
+		 * its magic number and version are checked.
+		 */
+		static Reader open(ReadableByteChannel channel) throws IOException {
+			Reader reader = new Reader(channel);
+			if (reader.getInt() != MAGIC) throw new StreamCorruptedException("Not a filesystem snapshot.");
+			int version = (int) reader.getVarint();
+			if (version == MappedSnapshot.VERSION)
+				throw new StreamCorruptedException("Indexed snapshots are opened with MappedSnapshot.open.");
+			if (version != VERSION) throw new StreamCorruptedException("Unknown snapshot version " + version + ".");
+			return reader;
+		}
+
+		final ReadableByteChannel channel;
+		final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+		final ArrayList<String> strings = new ArrayList<>();
+		long lastCreationTime = 0;
+
+		/**
+		 * The fields of the last record that was read. The quotas are NO_QUOTA and the
+		 * number of items is 0 for a file; the size is 0 and the type null for a directory.
+		 */
+		int flags;
+		String name;
+		long creationTime;
+		long modificationTime;
+		long size;
+		String type;
+		long byteQuota;
+		long itemQuota;
+
+		/**
+		 * The number of items of the last directory that was read.
+		 */
+		long lastNbItems;
+
+		/**
+		 * Read the next record into the fields of this reader.
+		 */
+		void readRecord() throws IOException {
+			flags = getByte();
+			name = getString();
+			if (!FilesystemItem.isValidName(name)) throw new StreamCorruptedException("Invalid name: " + name);
+			creationTime = lastCreationTime + getZigzag();
+			lastCreationTime = creationTime;
+			modificationTime = ((flags & MODIFIED) != 0) ? creationTime + getZigzag() : FilesystemItem.NOT_MODIFIED;
+			byteQuota = itemQuota = Directory.NO_QUOTA;
+			if ((flags & DIRECTORY) != 0) {
+				if ((flags & QUOTA) != 0) {
+					byteQuota = getVarint();
+					itemQuota = getVarint();
+					if (!Directory.isValidQuota(byteQuota) || !Directory.isValidQuota(itemQuota))
+						throw new StreamCorruptedException("Invalid quota.");
+				}
+				lastNbItems = getVarint();
+				size = 0;
+				type = null;
+			} else {
+				lastNbItems = 0;
+				size = getVarint();
+				if (size > Integer.MAX_VALUE) throw new StreamCorruptedException("Invalid size: " + size);
+				type = getString();
+				try {
+					FileType.register(type);
+				} catch (IllegalArgumentException e) {
+					throw new StreamCorruptedException("Invalid file type: " + type);
+				}
+			}
+		}
+
+		/**
+		 * Read the record of one item, and place it in the directory of the given level.
+		 */
+		FilesystemItem getItem(Level parent) throws IOException {
+			readRecord();
+			boolean writable = (flags & WRITABLE) != 0;
+			FilesystemItem item;
+			if ((flags & DIRECTORY) != 0) {
+				Directory dir = new Directory(null, name, writable, (flags & CONCURRENT) != 0);
+				if ((flags & QUOTA) != 0) {
+					dir.setByteQuota(byteQuota);
+					dir.setItemQuota(itemQuota);
+				}
+				item = dir;
+			} else {
+				item = new File(null, name, (int) size, writable, type);
+			}
+			item.restoreTimes(creationTime, modificationTime);
+			if (parent != null) item.restorePosition(parent.directory);
+			return item;
+		}
+
+		String getString() throws IOException {
+			long reference = getVarint();
+			if (reference != 0) {
+				if (reference < 0 || reference > strings.size()) throw new StreamCorruptedException("Unknown string " + reference + ".");
+				return strings.get((int) reference - 1);
+			}
+			long length = getVarint();
+			if (length < 0 || length > Integer.MAX_VALUE || length > getRemainingInput())
+				throw new StreamCorruptedException("Invalid string length.");
+			String string;
+			if (length <= buffer.remaining()) {
+				string = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), (int) length, StandardCharsets.UTF_8);
+				buffer.position(buffer.position() + (int) length);
+			} else {
+				string = new String(getBytes((int) length), StandardCharsets.UTF_8);
+			}
+			if (strings.size() < MAX_STRINGS) strings.add(string);
+			return string;
+		}
+
+		/**
+		 * Read the given number of bytes, which do not fit in the buffer. The array
+		 * grows with the bytes that are actually read, so a damaged length does not
+		 * allocate more than the input holds.
+		 */
+		private byte[] getBytes(int length) throws IOException {
+			byte[] bytes = new byte[Math.min(length, 2 * BUFFER_SIZE)];
+			for (int offset = 0; offset < length; ) {
+				if (!buffer.hasRemaining()) {
+					try {
+						fill();
+					} catch (EOFException e) {
+						throw new StreamCorruptedException("Invalid string length.");
+					}
+				}
+				if (offset == bytes.length) bytes = Arrays.copyOf(bytes, (int) Math.min(length, 2L * bytes.length));
+				int chunk = Math.min(buffer.remaining(), bytes.length - offset);
+				buffer.get(bytes, offset, chunk);
+				offset += chunk;
+			}
+			return bytes;
+		}
+
+		/**
+		 * Return the number of bytes that are left to be read, or Long.MAX_VALUE if
+		 * the channel can not tell.
+		 */
+		private long getRemainingInput() throws IOException {
+			if (!(channel instanceof SeekableByteChannel)) return Long.MAX_VALUE;
+			SeekableByteChannel seekable = (SeekableByteChannel) channel;
+			return buffer.remaining() + Math.max(0, seekable.size() - seekable.position());
+		}
+
+		long getZigzag() throws IOException {
+			long value = getVarint();
+			return (value >>> 1) ^ -(value & 1);
+		}
+
+		long getVarint() throws IOException {
+			long value = 0;
+			for (int shift = 0; shift < 64; shift += 7) {
+				int b = getByte();
+				value |= (long) (b & 0x7F) << shift;
+				if ((b & 0x80) == 0) return value;
+			}
+			throw new StreamCorruptedException("Invalid varint.");
+		}
+
+		int getInt() throws IOException {
+			return (getByte() << 24) | (getByte() << 16) | (getByte() << 8) | getByte();
+		}
+
+		int getByte() throws IOException {
+			if (!buffer.hasRemaining()) fill();
+			return buffer.get() & 0xFF;
+		}
+
+		void fill() throws IOException {
+			buffer.clear();
+			int read;
+			do {
+				read = channel.read(buffer);
+			} while (read == 0);
+			buffer.flip();
+			if (read < 0) throw new EOFException("The snapshot ends too early.");
+		}
+	}
+}
@@ -0,0 +1,158 @@
+package filesystem;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.junit.*;
+
+/**
+ * A JUnit test class for saving and loading snapshots of trees.
+ *
+ */
+public class SnapshotTest {
+
+	Directory root;
+	Directory subDirectory;
+	File fileInRoot;
+
+	@Before
+	public void setUpFixture(){
+		root = new Directory("root");
+		subDirectory = new Directory(root, "Sub", true);
+		fileInRoot = new File(root, "bestand", "txt");
+	}
+
+	private static byte[] save(Directory dir) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		Snapshot.save(dir, Channels.newChannel(out));
+		return out.toByteArray();
+	}
+
+	private static Directory load(byte[] bytes) throws IOException {
+		return Snapshot.load(Channels.newChannel(new ByteArrayInputStream(bytes)));
+	}
+
+	@Test
+	public void testSaveAndLoad_SameTree() throws IOException {
+		File deeper = new File(subDirectory, "deeper", 1234, false, "pdf");
+		fileInRoot.enlarge(100);
+		subDirectory.setByteQuota(5000);
+		FileType.register("log");
+		new File(subDirectory, "app", 7, true, "log");
+		Directory loaded = load(save(root));
+
+		assertEquals("root", loaded.getName());
+		assertEquals(root.getCreationTimeMillis(), loaded.getCreationTimeMillis());
+		assertEquals(root.getModificationTimeMillis(), loaded.getModificationTimeMillis());
+		assertEquals(root.getTotalSize(), loaded.getTotalSize());
+		assertEquals(root.getTotalNbItems(), loaded.getTotalNbItems());
+		File loadedFile = (File) loaded.getItem("bestand");
+		assertEquals(100, loadedFile.getSize());
+		assertEquals(fileInRoot.getModificationTimeMillis(), loadedFile.getModificationTimeMillis());
+		Directory loadedSub = (Directory) loaded.getItem("sub");
+		assertEquals("Sub", loadedSub.getName());
+		assertEquals(5000, loadedSub.getByteQuota());
+		assertEquals(2, loadedSub.getNbItems());
+		File loadedDeeper = (File) loaded.resolve("/Sub/deeper");
+		assertEquals(1234, loadedDeeper.getSize());
+		assertSame(FileType.PDF, loadedDeeper.getType());
+		assertFalse(loadedDeeper.isWritable());
+		assertEquals(FilesystemItem.NOT_MODIFIED, loadedDeeper.getModificationTimeMillis());
+		assertEquals(deeper.getCreationTimeMillis(), loadedDeeper.getCreationTimeMillis());
+		assertEquals(2, loadedDeeper.getDepth());
+		assertSame(loaded, loadedDeeper.getRoot());
+		assertSame(FileType.get("log"), ((File) loadedSub.getItem("app")).getType());
+	}
+
+	@Test
+	public void testLoad_ContentsSortedAndUsable() throws IOException {
+		Directory dir = new Directory(root, "dir", true);
+		for (int i = 0; i < 1000; i++) new File(dir, "file" + (i * 7919 % 1000), i, true, "txt");
+		Directory loaded = load(save(root));
+		Directory loadedDir = (Directory) loaded.getItem("dir");
+		assertEquals(1000, loadedDir.getNbItems());
+		for (int i = 1; i < loadedDir.getNbItems(); i++){
+			assertTrue(String.CASE_INSENSITIVE_ORDER.compare(
+					loadedDir.getItemAt(i).getName(), loadedDir.getItemAt(i + 1).getName()) < 0);
+		}
+		new File(loadedDir, "file0500a", "txt");
+		assertEquals("file0500a", loadedDir.listByPrefix("file05").get(0).getName());
+		assertEquals(root.getTotalSize(), loaded.getTotalSize());
+	}
+
+	@Test
+	public void testSave_NamesStoredOnce() throws IOException {
+		for (int i = 0; i < 100; i++){
+			Directory dir = new Directory(root, "dir" + i, true);
+			for (int j = 0; j < 10; j++) new File(dir, "a_long_shared_file_name_" + j, "txt");
+		}
+		assertTrue(save(root).length < 100 * 10 * 16);
+	}
+
+	@Test
+	public void testLoad_DeepTree() throws IOException {
+		Directory deepest = root;
+		for (int i = 0; i < 10000; i++) deepest = new Directory(deepest, "level" + i, true);
+		Directory loaded = load(save(root));
+		assertEquals(10002, loaded.getTotalNbItems());
+		assertEquals(10000, ((Directory) loaded.getItem("level0")).getTotalNbItems() + 1);
+	}
+
+	@Test (expected = StreamCorruptedException.class)
+	public void testLoad_NotASnapshot() throws IOException {
+		load(new byte[] {1, 2, 3, 4, 5});
+	}
+
+	@Test (expected = IOException.class)
+	public void testLoad_Truncated() throws IOException {
+		byte[] bytes = save(root);
+		load(Arrays.copyOf(bytes, bytes.length - 2));
+	}
+
+	/**
+	 * Return the start of a snapshot, up to and including the flags of the root.
+	 */
+	private static Snapshot.Writer startSnapshot(ByteArrayOutputStream out, int flags) throws IOException {
+		Snapshot.Writer writer = new Snapshot.Writer(Channels.newChannel(out));
+		writer.buffer.putInt(Snapshot.MAGIC);
+		writer.putVarint(Snapshot.VERSION);
+		writer.buffer.put((byte) flags);
+		return writer;
+	}
+
+	@Test (expected = StreamCorruptedException.class)
+	public void testLoad_NegativeQuota() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		Snapshot.Writer writer = startSnapshot(out, Snapshot.DIRECTORY | Snapshot.QUOTA);
+		writer.putString("root");
+		writer.putZigzag(0);
+		writer.putVarint(-5);
+		writer.putVarint(Directory.NO_QUOTA);
+		writer.putVarint(0);
+		writer.flush();
+		load(out.toByteArray());
+	}
+
+	@Test (expected = StreamCorruptedException.class)
+	public void testLoad_StringLongerThanInput() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		Snapshot.Writer writer = startSnapshot(out, Snapshot.DIRECTORY);
+		writer.putVarint(0);
+		writer.putVarint(Integer.MAX_VALUE - 8);
+		writer.buffer.put("root".getBytes(StandardCharsets.UTF_8));
+		writer.flush();
+		load(out.toByteArray());
+	}
+
+	@Test (expected = IllegalArgumentException.class)
+	public void testSave_NotARoot() throws IOException {
+		save(subDirectory);
+	}
+
+}
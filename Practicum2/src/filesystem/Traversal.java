@@ -0,0 +1,221 @@
+package filesystem;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Consumer;
+
+/**
+ * Helpers for visiting all items below a directory, sequentially or in parallel.
+ * Work is split at directory boundaries: sibling subdirectories become tasks
+ * or parts of a stream of their own, and very large directories are split
+ * further into ranges of their contents.
+ */
+final class Traversal {
+
+	/**
+	 * Number of items of one directory that are visited by one task before the
+	 * contents are split over several tasks.
+	 */
+	static final int SPLIT_THRESHOLD = 1024;
+
+	private Traversal() {
+	}
+
+	/**
+	 * Return the items of the given directory, as they are at one moment in time.
+	 */
+	static ArrayList<FilesystemItem> getContentsOf(Directory dir) {
+		ArrayList<FilesystemItem> contents = new ArrayList<>(dir.getNbItems());
+		dir.addContentsTo(contents);
+		return contents;
+	}
+
+	/**
+	 * Visit all given items and everything below them, in pre-order, on the current thread.
+	 */
+	static void walk(List<FilesystemItem> items, Consumer<? super FilesystemItem> visitor) {
+		ArrayDeque<FilesystemItem> pending = new ArrayDeque<>();
+		for (int i = items.size() - 1; i >= 0; i--) pending.push(items.get(i));
+		while (!pending.isEmpty()) {
+			FilesystemItem item = pending.pop();
+			visitor.accept(item);
+			if (item instanceof Directory) {
+				ArrayList<FilesystemItem> contents = getContentsOf((Directory) item);
+				for (int i = contents.size() - 1; i >= 0; i--) pending.push(contents.get(i));
+			}
+		}
+	}
+
+	/**
+	 * Number of nested levels of tasks below which a task still forks. Deeper
+	 * tasks visit their items on the current thread, so very deep trees do not
+	 * overflow the stacks of the pool.
+	 */
+	static final int FORK_DEPTH = 64;
+
+	/**
+	 * A fork-join task visiting a range of items and everything below them. A task
+	 * only forks when several of its directories have contents, or when its range
+	 * is too large. A single directory below a range is walked by the same task, so
+	 * a chain of directories costs no nesting at all.
+	 */
+	static final class WalkTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final List<FilesystemItem> items;
+		private final Consumer<? super FilesystemItem> visitor;
+		private final int depth;
+
+		WalkTask(List<FilesystemItem> items, Consumer<? super FilesystemItem> visitor) {
+			this(items, visitor, 0);
+		}
+
+		private WalkTask(List<FilesystemItem> items, Consumer<? super FilesystemItem> visitor, int depth) {
+			this.items = items;
+			this.visitor = visitor;
+			this.depth = depth;
+		}
+
+		@Override
+		protected void compute() {
+			List<FilesystemItem> items = this.items;
+			while (true) {
+				if (depth >= FORK_DEPTH) {
+					walk(items, visitor);
+					return;
+				}
+				if (items.size() > SPLIT_THRESHOLD) {
+					int middle = items.size() / 2;
+					invokeAll(new WalkTask(items.subList(0, middle), visitor, depth + 1),
+							new WalkTask(items.subList(middle, items.size()), visitor, depth + 1));
+					return;
+				}
+				ArrayList<List<FilesystemItem>> below = new ArrayList<>();
+				for (FilesystemItem item: items) {
+					visitor.accept(item);
+					if (item instanceof Directory) {
+						ArrayList<FilesystemItem> contents = getContentsOf((Directory) item);
+						if (!contents.isEmpty()) below.add(contents);
+					}
+				}
+				if (below.size() != 1) {
+					ArrayList<WalkTask> subtasks = new ArrayList<>(below.size());
+					for (List<FilesystemItem> contents: below) subtasks.add(new WalkTask(contents, visitor, depth + 1));
+					invokeAll(subtasks);
+					return;
+				}
+				items = below.get(0);
+			}
+		}
+	}
+
+	/**
+	 * A spliterator over a forest of items, in pre-order. It splits by handing
+	 * off whole subtrees that are still to be visited. When a single directory
+	 * is left, it is opened: the directory and the first half of its contents
+	 * are handed off, and the rest of its contents is kept, so that one large
+	 * subtree is split as well.
+	 */
+	static final class TreeSpliterator implements Spliterator<FilesystemItem> {
+
+		/**
+		 * A directory to visit before the pending items, whose contents are
+		 * already among them, or null.
+		 */
+		private FilesystemItem opened;
+
+		/**
+		 * The roots of the subtrees that are still to be visited, in order.
+		 */
+		private final ArrayDeque<FilesystemItem> pending;
+
+		/**
+		 * The number of items still to be visited, as far as it was known when
+		 * the pending items were last changed by a split.
+		 */
+		private long estimate;
+
+		TreeSpliterator(List<FilesystemItem> items) {
+			this(null, items);
+		}
+
+		private TreeSpliterator(FilesystemItem opened, List<FilesystemItem> items) {
+			this.opened = opened;
+			this.pending = new ArrayDeque<>(items);
+			this.estimate = (opened == null) ? 0 : 1;
+			for (FilesystemItem item: items) this.estimate += sizeOf(item);
+		}
+
+		/**
+		 * Return the number of items in the subtree of the given item.
+		 */
+		private static long sizeOf(FilesystemItem item) {
+			return (item instanceof Directory) ? 1 + ((Directory) item).getTotalNbItems() : 1;
+		}
+
+		@Override
+		public boolean tryAdvance(Consumer<? super FilesystemItem> action) {
+			FilesystemItem item = opened;
+			if (item != null) {
+				opened = null;
+			} else {
+				item = pending.pollFirst();
+				if (item == null) return false;
+				if (item instanceof Directory) {
+					ArrayList<FilesystemItem> contents = getContentsOf((Directory) item);
+					for (int i = contents.size() - 1; i >= 0; i--) pending.addFirst(contents.get(i));
+				}
+			}
+			if (estimate > 0) estimate--;
+			action.accept(item);
+			return true;
+		}
+
+		@Override
+		public Spliterator<FilesystemItem> trySplit() {
+			if (opened != null) {
+				if (pending.isEmpty()) return null;
+				TreeSpliterator prefix = new TreeSpliterator(opened, new ArrayList<>());
+				opened = null;
+				estimate = Math.max(0, estimate - 1);
+				return prefix;
+			}
+			int size = pending.size();
+			if (size == 1 && pending.peekFirst() instanceof Directory) {
+				Directory dir = (Directory) pending.peekFirst();
+				ArrayList<FilesystemItem> contents = getContentsOf(dir);
+				if (contents.isEmpty()) return null;
+				pending.pollFirst();
+				int middle = (contents.size() + 1) / 2;
+				TreeSpliterator prefix = new TreeSpliterator(dir, contents.subList(0, middle));
+				pending.addAll(contents.subList(middle, contents.size()));
+				resetEstimate();
+				return prefix;
+			}
+			if (size < 2) return null;
+			ArrayList<FilesystemItem> prefix = new ArrayList<>(size / 2);
+			for (int i = 0; i < size / 2; i++) prefix.add(pending.pollFirst());
+			resetEstimate();
+			return new TreeSpliterator(prefix);
+		}
+
+		private void resetEstimate() {
+			estimate = 0;
+			for (FilesystemItem item: pending) estimate += sizeOf(item);
+		}
+
+		@Override
+		public long estimateSize() {
+			return (opened == null && pending.isEmpty()) ? 0 : Math.max(1, estimate);
+		}
+
+		@Override
+		public int characteristics() {
+			return ORDERED | NONNULL;
+		}
+	}
+}